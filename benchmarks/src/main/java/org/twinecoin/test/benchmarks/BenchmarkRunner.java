@@ -0,0 +1,56 @@
+package org.twinecoin.test.benchmarks;
+
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON.<br>
+ * <br>
+ * The arguments are the standard JMH command line options.  Unless they
+ * select a result format, the results are written as JSON to the file
+ * given by the twinetest.benchmark.result property, which defaults to
+ * jmh-result.json.
+ */
+public class BenchmarkRunner {
+
+	public final static String RESULT_PROPERTY = "twinetest.benchmark.result";
+
+	public final static String DEFAULT_RESULT = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException {
+		CommandLineOptions cmdOptions;
+		try {
+			cmdOptions = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e) {
+			System.err.println("Error parsing command line: " + e.getMessage());
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+			options.result(System.getProperty(RESULT_PROPERTY, DEFAULT_RESULT));
+		}
+
+		new Runner(options.build()).run();
+	}
+
+	/**
+	 * Installs the Bouncy Castle provider, if it is not already installed.
+	 * The benchmarks are forked, so this must be called from the setup
+	 * method of each benchmark.
+	 */
+	static void installProvider() {
+		if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.twinecoin.test.benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.twinecoin.test.vectors.Convert;
+
+/**
+ * Benchmarks for the conversions used when formatting vectors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvertBenchmark {
+
+	private final static int VALUES = 1024;
+
+	@Param({"32", "256"})
+	public int messageLength;
+
+	private BigInteger[] values;
+
+	private byte[][] messages;
+
+	private int index;
+
+	@Setup
+	public void setup() {
+		Random r = new Random(0x280e788cff6ec2bbL);
+
+		values = new BigInteger[VALUES];
+		messages = new byte[VALUES][];
+		for (int i = 0; i < VALUES; i++) {
+			values[i] = new BigInteger(512, r);
+			messages[i] = new byte[messageLength];
+			r.nextBytes(messages[i]);
+		}
+	}
+
+	private int next() {
+		index = (index + 1) & (VALUES - 1);
+		return index;
+	}
+
+	@Benchmark
+	public String bigIntegerToU512() {
+		return Convert.bigIntegerToU512(values[next()]);
+	}
+
+	@Benchmark
+	public String bytesToU8() {
+		return Convert.bytesToU8(false, messages[next()]);
+	}
+
+	@Benchmark
+	public String bytesToU8Escaped() {
+		return Convert.bytesToU8(true, messages[next()]);
+	}
+
+	@Benchmark
+	public String bytesToH256() {
+		return Convert.bytesToH256(messages[next()]);
+	}
+
+	@Benchmark
+	public BigInteger LEBytesToBigInteger() {
+		return Convert.LEBytesToBigInteger(messages[next()]);
+	}
+}
@@ -0,0 +1,88 @@
+package org.twinecoin.test.benchmarks;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.twinecoin.test.crypt.MultiDigest;
+import org.twinecoin.test.crypt.RIPEMD160;
+import org.twinecoin.test.crypt.SHA256;
+import org.twinecoin.test.crypt.SHA512;
+
+/**
+ * Benchmarks for the thread local message digests, including the double
+ * digests, and the single pass MultiDigest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DigestBenchmark {
+
+	@Param({"64", "16384"})
+	public int messageLength;
+
+	private byte[] message;
+
+	@Setup
+	public void setup() {
+		BenchmarkRunner.installProvider();
+
+		message = new byte[messageLength];
+		new Random(0x280e788cff6ec2bbL).nextBytes(message);
+	}
+
+	private byte[] digest(MessageDigest md) {
+		md.reset();
+		md.update(message);
+		return md.digest();
+	}
+
+	@Benchmark
+	public byte[] sha256() {
+		return digest(SHA256.getSHA256MessageDigest());
+	}
+
+	@Benchmark
+	public byte[] sha512() {
+		return digest(SHA512.getSHA512MessageDigest());
+	}
+
+	@Benchmark
+	public byte[] ripemd160() {
+		return digest(RIPEMD160.getRIPEMD160MessageDigest());
+	}
+
+	@Benchmark
+	public byte[] dsha256() {
+		return digest(SHA256.getDSHA256MessageDigest());
+	}
+
+	@Benchmark
+	public byte[] dsha512() {
+		return digest(SHA512.getDSHA512MessageDigest());
+	}
+
+	@Benchmark
+	public byte[] dripemd160() {
+		return digest(RIPEMD160.getDRIPEMD160MessageDigest());
+	}
+
+	@Benchmark
+	public byte[][] multiDigest() {
+		return MultiDigest.digest(message, 1);
+	}
+}
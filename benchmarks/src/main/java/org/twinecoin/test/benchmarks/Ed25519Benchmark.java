@@ -0,0 +1,87 @@
+package org.twinecoin.test.benchmarks;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.twinecoin.test.crypt.TwEd25519;
+
+/**
+ * Benchmarks for the Ed25519 key wrappers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Ed25519Benchmark {
+
+	private byte[] seed;
+
+	private PublicKey publicKey;
+
+	private Ed25519PrivateKeyParameters rawPrivateKey;
+
+	private byte[] rawPublicKey;
+
+	private byte[] message;
+
+	@Setup
+	public void setup() {
+		BenchmarkRunner.installProvider();
+
+		seed = new byte[32];
+		new Random(0x280e788cff6ec2bbL).nextBytes(seed);
+
+		PrivateKey privateKey = TwEd25519.createPrivateKey(seed);
+		publicKey = privateKey == null ? null : TwEd25519.getPublicKey(privateKey);
+
+		if (publicKey == null) {
+			throw new IllegalStateException("Unable to create Ed25519 benchmark key");
+		}
+
+		rawPrivateKey = TwEd25519.createRawPrivateKey(seed);
+		rawPublicKey = TwEd25519.getRawPublicKey(rawPrivateKey);
+
+		message = new byte[256];
+		new Random(0x280e788cff6ec2bbL).nextBytes(message);
+	}
+
+	@Benchmark
+	public PrivateKey createPrivateKey() {
+		return TwEd25519.createPrivateKey(seed);
+	}
+
+	@Benchmark
+	public byte[] getPublicKeyDERBytes() {
+		return TwEd25519.getPublicKeyDERBytes(publicKey);
+	}
+
+	@Benchmark
+	public Ed25519PrivateKeyParameters createRawPrivateKey() {
+		return TwEd25519.createRawPrivateKey(seed);
+	}
+
+	@Benchmark
+	public byte[] getRawPublicKey() {
+		return TwEd25519.getRawPublicKey(rawPrivateKey);
+	}
+
+	@Benchmark
+	public byte[] signRaw() {
+		return TwEd25519.sign(rawPrivateKey, rawPublicKey, message);
+	}
+}
@@ -0,0 +1,67 @@
+package org.twinecoin.test.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.twinecoin.test.crypt.HexCodec;
+
+/**
+ * Benchmarks for bulk hex encoding and decoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexCodecBenchmark {
+
+	@Param({"32", "256"})
+	public int length;
+
+	private byte[] bytes;
+
+	private String hex;
+
+	private char[] chars;
+
+	private byte[] decoded;
+
+	@Setup
+	public void setup() {
+		bytes = new byte[length];
+		new Random(0x280e788cff6ec2bbL).nextBytes(bytes);
+		hex = HexCodec.encode(bytes);
+		chars = new char[length * 4];
+		decoded = new byte[length];
+	}
+
+	@Benchmark
+	public char[] encode() {
+		HexCodec.encode(bytes, 0, bytes.length, chars, 0);
+		return chars;
+	}
+
+	@Benchmark
+	public char[] encodeEscaped() {
+		HexCodec.encodeEscaped(bytes, 0, bytes.length, chars, 0);
+		return chars;
+	}
+
+	@Benchmark
+	public byte[] decode() {
+		HexCodec.decode(hex, 0, hex.length(), decoded, 0);
+		return decoded;
+	}
+}
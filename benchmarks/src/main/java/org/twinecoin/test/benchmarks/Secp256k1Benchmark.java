@@ -0,0 +1,83 @@
+package org.twinecoin.test.benchmarks;
+
+import java.math.BigInteger;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.twinecoin.test.crypt.Secp256k1;
+
+/**
+ * Benchmarks for the secp256k1 key and signature wrappers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Secp256k1Benchmark {
+
+	private BigInteger x;
+
+	private ECPrivateKey privateKey;
+
+	private ECPublicKey publicKey;
+
+	private byte[] message;
+
+	private byte[] signature;
+
+	@Setup
+	public void setup() {
+		BenchmarkRunner.installProvider();
+
+		Random r = new Random(0x280e788cff6ec2bbL);
+
+		do {
+			x = new BigInteger(256, r);
+		} while (x.signum() == 0 || x.compareTo(Secp256k1.getOrder()) >= 0);
+
+		message = new byte[32];
+		r.nextBytes(message);
+
+		privateKey = Secp256k1.getECPrivateKey(x);
+		publicKey = Secp256k1.getECPublicKey(privateKey);
+		signature = Secp256k1.sign(privateKey, message);
+
+		if (privateKey == null || publicKey == null || signature == null) {
+			throw new IllegalStateException("Unable to create secp256k1 benchmark key");
+		}
+	}
+
+	@Benchmark
+	public ECPrivateKey getECPrivateKey() {
+		return Secp256k1.getECPrivateKey(x);
+	}
+
+	@Benchmark
+	public ECPublicKey getECPublicKey() {
+		return Secp256k1.getECPublicKey(privateKey);
+	}
+
+	@Benchmark
+	public byte[] sign() {
+		return Secp256k1.sign(privateKey, message);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return Secp256k1.verify(publicKey, message, signature);
+	}
+}
@@ -0,0 +1,164 @@
+package org.twinecoin.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.twinecoin.test.vectors.OutputChannel;
+import org.twinecoin.test.vectors.VectorSink;
+
+/**
+ * Vector sink which streams lines directly to a C header file.<br>
+ * <br>
+ * The licence header, include guard and generator banner are written when
+ * the sink is opened and the include guard is closed by {@link #finish()}.
+ * The first write error is recorded and all later lines are discarded.<br>
+ * <br>
+ * Lines are copied into a large direct buffer which is written to an
+ * {@link OutputChannel}, so the header only appears under its final name
+ * once it is complete.  The output is almost entirely ASCII, so chars are
+ * copied as bytes, and only lines containing other chars are encoded as
+ * UTF-8.  Buffers are pooled and reused by later sinks.
+ */
+public class HeaderFileSink implements VectorSink {
+
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	private final static byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+	private final static ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private final OutputChannel channel;
+
+	private ByteBuffer buffer;
+
+	private byte[] lineBytes = new byte[256];
+
+	private IOException exception;
+
+	private HeaderFileSink(OutputChannel channel) {
+		this.channel = channel;
+		ByteBuffer pooled = bufferPool.poll();
+		this.buffer = pooled == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : pooled;
+	}
+
+	/**
+	 * Opens a header file for writing and writes the file preamble.
+	 *
+	 * @param dir the output directory
+	 * @param filename the header filename, which is also used for the include guard
+	 * @return the sink
+	 * @throws IOException if the file could not be opened
+	 */
+	public static HeaderFileSink open(File dir, String filename) throws IOException {
+		HeaderFileSink sink = new HeaderFileSink(OutputChannel.create(dir, filename));
+
+		for (String line : TwineTest.MIT_HEADER) {
+			sink.add(line);
+		}
+
+		String defineName = filename.toUpperCase().replace('.', '_');
+		sink.add("#ifndef " + defineName);
+		sink.add("#define " + defineName);
+		sink.add("");
+		sink.add("/*");
+		sink.add(" *        TwineTest Java Test Vector Generator");
+		sink.add(" *");
+		sink.add(" *         AUTO-GENERATED FILE - DO NOT EDIT");
+		sink.add(" *");
+		sink.add(" * This file was generated by TwineTest.  All edits should be submitted to");
+		sink.add(" * the project at https://github.com/twinecoin/twinetest");
+		sink.add(" */");
+
+		return sink;
+	}
+
+	public File getFile() {
+		return channel.getFile();
+	}
+
+	@Override
+	public void add(String line) {
+		if (exception != null || buffer == null) {
+			return;
+		}
+		int length = line.length();
+		if (lineBytes.length < length) {
+			lineBytes = new byte[Math.max(length, lineBytes.length << 1)];
+		}
+		byte[] bytes = lineBytes;
+		for (int i = 0; i < length; i++) {
+			char c = line.charAt(i);
+			if (c >= 0x80) {
+				bytes = line.getBytes(StandardCharsets.UTF_8);
+				length = bytes.length;
+				break;
+			}
+			bytes[i] = (byte) c;
+		}
+		put(bytes, length);
+		put(LINE_SEPARATOR, LINE_SEPARATOR.length);
+	}
+
+	/**
+	 * Writes the include guard trailer, and renames the completed file into
+	 * place.
+	 *
+	 * @throws IOException if any line could not be written
+	 */
+	public void finish() throws IOException {
+		add("");
+		add("#endif");
+		flush();
+		if (exception == null) {
+			try {
+				channel.commit();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+		close();
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Closes the file.  If the file has not been finished, it is discarded.
+	 */
+	public void close() {
+		channel.abort();
+		if (buffer != null) {
+			buffer.clear();
+			bufferPool.offer(buffer);
+			buffer = null;
+		}
+	}
+
+	private void put(byte[] bytes, int length) {
+		int offset = 0;
+		while (offset < length && exception == null) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int count = Math.min(length - offset, buffer.remaining());
+			buffer.put(bytes, offset, count);
+			offset += count;
+		}
+	}
+
+	private void flush() {
+		if (exception != null || buffer == null) {
+			return;
+		}
+		buffer.flip();
+		try {
+			channel.write(buffer);
+		} catch (IOException e) {
+			exception = e;
+		}
+		buffer.clear();
+	}
+}
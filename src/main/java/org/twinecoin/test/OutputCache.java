@@ -0,0 +1,329 @@
+package org.twinecoin.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.twinecoin.test.crypt.BouncyCastleLoader;
+import org.twinecoin.test.crypt.HexCodec;
+import org.twinecoin.test.vectors.OutputChannel;
+
+/**
+ * Content addressed cache of generated output files.<br>
+ * <br>
+ * Each output job is keyed by a SHA-256 fingerprint of everything that
+ * determines its output: the generator parameters (version, seed, counts
+ * and options), the output filenames, a hash of the TwineTest code and the
+ * hash of the Bouncy Castle jar.  The files for a fingerprint are stored
+ * in a directory named after the fingerprint, together with an entry file
+ * listing the SHA-256 of each file.  Cached files are verified against the
+ * entry file when they are restored.
+ */
+public class OutputCache {
+
+	private final static String ENTRY_FILENAME = "entry.sha256";
+
+	private final static int BUFFER_SIZE = 65536;
+
+	private static String codeHash;
+
+	private static boolean codeHashDone;
+
+	private final File cacheDir;
+
+	public OutputCache(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Computes the fingerprint for an output job.
+	 *
+	 * @param filenames the output filenames
+	 * @param parameters the generator parameters
+	 * @return the fingerprint, or null if the code could not be hashed
+	 */
+	public String getFingerprint(List<String> filenames, Map<String, String> parameters) {
+		String code = getCodeHash();
+		if (code == null) {
+			return null;
+		}
+
+		Map<String, String> inputs = new TreeMap<String, String>();
+		for (Map.Entry<String, String> entry : parameters.entrySet()) {
+			inputs.put("parameter." + entry.getKey(), entry.getValue());
+		}
+		inputs.put("files", filenames.toString());
+		inputs.put("code.sha256", code);
+		inputs.put("bcprov.sha256", BouncyCastleLoader.SHA256Expected);
+
+		MessageDigest md = createSHA256();
+		for (Map.Entry<String, String> entry : inputs.entrySet()) {
+			md.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return HexCodec.encode(md.digest());
+	}
+
+	/**
+	 * Copies the cached files for a fingerprint to the output directory.
+	 * Each file is copied to a temporary file and checked against its hash.
+	 * The files are only renamed into place once they all match, so a
+	 * mismatch leaves the existing output files untouched.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @param outDir the output directory
+	 * @param filenames the output filenames
+	 * @return true if all the files were restored and matched their hashes
+	 */
+	public boolean restore(String fingerprint, File outDir, List<String> filenames) {
+		File entryDir = new File(cacheDir, fingerprint);
+		Map<String, String> hashes = readEntry(new File(entryDir, ENTRY_FILENAME));
+		if (hashes == null || !hashes.keySet().equals(new HashSet<String>(filenames))) {
+			return false;
+		}
+
+		List<OutputChannel> channels = new ArrayList<OutputChannel>();
+		try {
+			for (String filename : filenames) {
+				OutputChannel out = OutputChannel.create(outDir, filename);
+				channels.add(out);
+				String hash = copy(new File(entryDir, filename), out);
+				if (!hash.equals(hashes.get(filename))) {
+					return false;
+				}
+			}
+			for (OutputChannel out : channels) {
+				out.commit();
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			for (OutputChannel out : channels) {
+				out.abort();
+			}
+		}
+	}
+
+	/**
+	 * Stores the output files for a fingerprint.  The files are copied to a
+	 * temporary directory, which is then renamed, so a partially written
+	 * entry is never visible.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @param outDir the output directory
+	 * @param filenames the output filenames
+	 * @throws IOException if the files could not be stored
+	 */
+	public void store(String fingerprint, File outDir, List<String> filenames) throws IOException {
+		File entryDir = new File(cacheDir, fingerprint);
+		File tempDir = new File(cacheDir, fingerprint + ".tmp" + System.nanoTime());
+
+		if (!tempDir.mkdirs()) {
+			throw new IOException("Unable to create cache directory, " + tempDir);
+		}
+
+		try {
+			List<String> lines = new ArrayList<String>();
+			for (String filename : filenames) {
+				String hash = copy(new File(outDir, filename), new File(tempDir, filename));
+				lines.add(hash + "  " + filename);
+			}
+			Files.write(new File(tempDir, ENTRY_FILENAME).toPath(), lines, StandardCharsets.US_ASCII);
+
+			deleteDirectory(entryDir);
+			Files.move(tempDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			deleteDirectory(tempDir);
+		}
+	}
+
+	/**
+	 * Writes the manifest of reused and generated files.
+	 *
+	 * @param manifest the manifest file
+	 * @param entries the manifest lines
+	 * @throws IOException if the manifest could not be written
+	 */
+	public static void writeManifest(File manifest, List<String> entries) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add("# TwineTest output cache manifest");
+		lines.add("# <file> <reused|generated|uncached> <fingerprint>");
+		lines.addAll(entries);
+		Files.write(manifest.toPath(), lines, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Gets a hash of the code which generates the vectors.  If the classes
+	 * are in a jar, the jar is hashed, otherwise all the files under the
+	 * class directory are hashed.
+	 *
+	 * @return the hash, or null if the code could not be located
+	 */
+	private static synchronized String getCodeHash() {
+		if (codeHashDone) {
+			return codeHash;
+		}
+		codeHashDone = true;
+
+		CodeSource source = OutputCache.class.getProtectionDomain().getCodeSource();
+		if (source == null) {
+			return null;
+		}
+		URL location = source.getLocation();
+		File root;
+		try {
+			root = new File(location.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		MessageDigest md = createSHA256();
+		try {
+			if (root.isDirectory()) {
+				hashDirectory(md, root, "");
+			} else {
+				hashFile(md, root);
+			}
+		} catch (IOException e) {
+			return null;
+		}
+
+		codeHash = HexCodec.encode(md.digest());
+		return codeHash;
+	}
+
+	private static void hashDirectory(MessageDigest md, File dir, String prefix) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Unable to list directory, " + dir);
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				hashDirectory(md, file, name + "/");
+			} else {
+				md.update((name + "\n").getBytes(StandardCharsets.UTF_8));
+				hashFile(md, file);
+			}
+		}
+	}
+
+	private static void hashFile(MessageDigest md, File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				md.update(buf, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copies a file and returns the SHA-256 of the copied bytes.
+	 */
+	private static String copy(File from, File to) throws IOException {
+		MessageDigest md = createSHA256();
+		InputStream in = new FileInputStream(from);
+		try {
+			OutputStream out = new FileOutputStream(to);
+			try {
+				byte[] buf = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buf)) > 0) {
+					md.update(buf, 0, read);
+					out.write(buf, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return HexCodec.encode(md.digest());
+	}
+
+	/**
+	 * Copies a file to an output file and returns the SHA-256 of the copied
+	 * bytes.  The output file is not committed.
+	 */
+	private static String copy(File from, OutputChannel to) throws IOException {
+		MessageDigest md = createSHA256();
+		InputStream in = new FileInputStream(from);
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				md.update(buf, 0, read);
+				to.write(ByteBuffer.wrap(buf, 0, read));
+			}
+		} finally {
+			in.close();
+		}
+		return HexCodec.encode(md.digest());
+	}
+
+	private static Map<String, String> readEntry(File entry) {
+		if (!entry.isFile()) {
+			return null;
+		}
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(entry.toPath(), StandardCharsets.US_ASCII);
+		} catch (IOException e) {
+			return null;
+		}
+		Map<String, String> hashes = new HashMap<String, String>();
+		for (String line : lines) {
+			int split = line.indexOf("  ");
+			if (split < 0) {
+				return null;
+			}
+			hashes.put(line.substring(split + 2), line.substring(0, split));
+		}
+		return hashes;
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static MessageDigest createSHA256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// This should not be possible
+			throw new IllegalStateException("SHA-256 not supported", e);
+		}
+	}
+}
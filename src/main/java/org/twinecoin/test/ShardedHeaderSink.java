@@ -0,0 +1,437 @@
+package org.twinecoin.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.twinecoin.test.util.Parallel;
+import org.twinecoin.test.util.RunReport;
+import org.twinecoin.test.vectors.SpoolFile;
+import org.twinecoin.test.vectors.VectorSink;
+
+/**
+ * Vector sink which splits a generated header into shards of bounded
+ * size.<br>
+ * <br>
+ * The lines from the generator are split into the array initializers and
+ * the lines outside them, such as typedefs and length definitions.  The
+ * lines outside the arrays are written to name_common.h.  The elements of
+ * the arrays are split into index ranges, so that the elements in each
+ * range, summed over all the arrays, fit within the shard size, unless a
+ * single index is larger.  Each range is written to name_shard_k.h, which
+ * defines name_shard_k[] for each array with elements in the range.  Since
+ * every array is split at the same indexes, arrays which are indexed
+ * together stay aligned within a shard.<br>
+ * <br>
+ * The original filename is used for an index header, which declares the
+ * shard arrays and defines their lengths and the number of shards for
+ * each array.  Each shard is intended to be compiled as a separate
+ * translation unit.  The shards are formatted and written in parallel.<br>
+ * <br>
+ * The lines and element sizes of each array are held in spool files until
+ * {@link #finish()}, so the heap used does not depend on the size of the
+ * header.
+ */
+public class ShardedHeaderSink implements VectorSink {
+
+	/**
+	 * Matches an array declaration, "type name[] =", optionally followed by
+	 * the opening brace of the initializer
+	 */
+	private final static Pattern ARRAY_START = Pattern.compile("^(\\S.*?[\\s*])(\\w+)\\[\\] =( \\{)?$");
+
+	private final static String ARRAY_END = "  };";
+
+	private final File dir;
+
+	private final String filename;
+
+	private final long shardSize;
+
+	private final List<String> commonLines = new ArrayList<String>();
+
+	private final List<ShardArray> arrays = new ArrayList<ShardArray>();
+
+	private ShardArray current;
+
+	private boolean opened;
+
+	private int depth;
+
+	/**
+	 * The number of lines, chars and spooled bytes of the element in progress
+	 */
+	private int elementLines;
+
+	private int elementSize;
+
+	private int elementBytes;
+
+	/**
+	 * Creates a sharded sink.  Nothing is written until {@link #finish()}.
+	 *
+	 * @param dir the output directory
+	 * @param filename the header filename, which is used for the index header
+	 * @param shardSize the maximum number of chars of array elements in a shard
+	 */
+	public ShardedHeaderSink(File dir, String filename, long shardSize) {
+		this.dir = dir;
+		this.filename = filename;
+		this.shardSize = shardSize;
+	}
+
+	@Override
+	public void add(String line) {
+		if (current == null) {
+			Matcher matcher = ARRAY_START.matcher(line);
+			if (matcher.matches()) {
+				current = new ShardArray(matcher.group(1), matcher.group(2));
+				opened = matcher.group(3) != null;
+				depth = 0;
+			} else {
+				commonLines.add(line);
+			}
+			return;
+		}
+
+		if (!opened) {
+			if (!line.trim().equals("{")) {
+				throw new IllegalStateException("Expected initializer for array " + current.name + ", " + line);
+			}
+			opened = true;
+			return;
+		}
+
+		if (depth == 0 && line.equals(ARRAY_END)) {
+			if (elementLines > 0) {
+				if (!current.pending) {
+					throw new IllegalStateException("Array " + current.name + " has no elements");
+				}
+				// Trailing comments belong to the last element
+				current.pendingLines += elementLines;
+				current.pendingBytes += elementBytes;
+				elementLines = 0;
+				elementSize = 0;
+				elementBytes = 0;
+			}
+			current.flushElement();
+			arrays.add(current);
+			current = null;
+			return;
+		}
+
+		elementBytes += current.addLine(line);
+		elementLines++;
+		elementSize += line.length() + 1;
+		boolean code = updateDepth(line);
+		if (depth < 0) {
+			throw new IllegalStateException("Unbalanced braces in array " + current.name + ", " + line);
+		}
+		if (depth == 0 && code) {
+			current.addElement(elementLines, elementSize, elementBytes);
+			elementLines = 0;
+			elementSize = 0;
+			elementBytes = 0;
+		}
+	}
+
+	/**
+	 * Writes the common header, the shards and the index header.
+	 *
+	 * @return the filenames written, starting with the index header
+	 * @throws IOException if a file could not be written
+	 */
+	public List<String> finish() throws IOException {
+		if (current != null) {
+			throw new IllegalStateException("Array " + current.name + " has not been ended");
+		}
+
+		final List<ShardRange> ranges = getRanges();
+
+		final String base = getBaseName();
+		final String commonFilename = base + "_common.h";
+
+		List<String> filenames = new ArrayList<String>();
+		filenames.add(filename);
+		filenames.add(commonFilename);
+
+		HeaderFileSink common = HeaderFileSink.open(dir, commonFilename);
+		try {
+			for (String line : commonLines) {
+				common.add(line);
+			}
+			common.finish();
+		} finally {
+			common.close();
+		}
+
+		final RunReport.Generator report = RunReport.current();
+		List<IOException> errors = Parallel.map(0, ranges.size(), new Parallel.IndexedTask<IOException>() {
+			@Override
+			public IOException compute(int index) {
+				RunReport.Generator previous = RunReport.current();
+				RunReport.setCurrent(report);
+				try {
+					writeShard(getShardFilename(base, index), commonFilename, index, ranges.get(index));
+					return null;
+				} catch (IOException e) {
+					return e;
+				} finally {
+					RunReport.setCurrent(previous);
+				}
+			}
+		});
+		for (int i = 0; i < errors.size(); i++) {
+			if (errors.get(i) != null) {
+				throw errors.get(i);
+			}
+			filenames.add(getShardFilename(base, i));
+		}
+
+		writeIndex(commonFilename, ranges);
+
+		return filenames;
+	}
+
+	/**
+	 * Deletes the spool files.  This must be called once the header has been
+	 * finished or abandoned.
+	 */
+	public void close() {
+		for (ShardArray array : arrays) {
+			array.close();
+		}
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 * Splits the element indexes into ranges which fit within the shard size.
+	 *
+	 * @return the ranges, with the spool position and number of lines of
+	 *         each array in the range
+	 */
+	private List<ShardRange> getRanges() {
+		int length = 0;
+		SpoolFile.Reader[] readers = new SpoolFile.Reader[arrays.size()];
+		for (int a = 0; a < arrays.size(); a++) {
+			length = Math.max(length, arrays.get(a).count);
+			readers[a] = arrays.get(a).elements.openReader();
+		}
+
+		long[] positions = new long[arrays.size()];
+		int[] lines = new int[arrays.size()];
+		int[] bytes = new int[arrays.size()];
+
+		List<ShardRange> ranges = new ArrayList<ShardRange>();
+		ShardRange range = null;
+		long size = 0;
+		for (int i = 0; i < length; i++) {
+			long indexSize = 0;
+			for (int a = 0; a < arrays.size(); a++) {
+				lines[a] = 0;
+				bytes[a] = 0;
+				if (i < arrays.get(a).count) {
+					ByteBuffer element = ByteBuffer.wrap(readers[a].next());
+					lines[a] = element.getInt();
+					indexSize += element.getInt();
+					bytes[a] = element.getInt();
+				}
+			}
+			if (range == null || (i > range.start && size + indexSize > shardSize)) {
+				range = new ShardRange(i, positions.clone());
+				ranges.add(range);
+				size = 0;
+			}
+			size += indexSize;
+			range.end = i + 1;
+			for (int a = 0; a < arrays.size(); a++) {
+				range.lines[a] += lines[a];
+				positions[a] += bytes[a];
+			}
+		}
+		return ranges;
+	}
+
+	private void writeShard(String shardFilename, String commonFilename, int index, ShardRange range) throws IOException {
+		HeaderFileSink sink = HeaderFileSink.open(dir, shardFilename);
+		try {
+			sink.add("#include \"" + commonFilename + "\"");
+			for (int a = 0; a < arrays.size(); a++) {
+				ShardArray array = arrays.get(a);
+				if (range.start >= Math.min(range.end, array.count)) {
+					continue;
+				}
+				sink.add("");
+				sink.add(array.type + getShardName(array.name, index) + "[] = {");
+				SpoolFile.Reader reader = array.lines.openReader(range.positions[a]);
+				for (int i = 0; i < range.lines[a]; i++) {
+					sink.add(new String(reader.next(), StandardCharsets.UTF_8));
+				}
+				sink.add(ARRAY_END);
+			}
+			sink.finish();
+		} finally {
+			sink.close();
+		}
+	}
+
+	private void writeIndex(String commonFilename, List<ShardRange> ranges) throws IOException {
+		HeaderFileSink sink = HeaderFileSink.open(dir, filename);
+		try {
+			sink.add("#include \"" + commonFilename + "\"");
+			for (ShardArray array : arrays) {
+				sink.add("");
+				int shards = 0;
+				for (int i = 0; i < ranges.size(); i++) {
+					int count = Math.min(ranges.get(i).end, array.count) - ranges.get(i).start;
+					if (count <= 0) {
+						break;
+					}
+					String shardName = getShardName(array.name, i);
+					sink.add("extern " + array.type + shardName + "[];");
+					sink.add("#define " + shardName.toUpperCase() + "_LENGTH " + count);
+					shards++;
+				}
+				sink.add("#define " + array.name.toUpperCase() + "_SHARDS " + shards);
+			}
+			sink.finish();
+		} finally {
+			sink.close();
+		}
+	}
+
+	private String getBaseName() {
+		int dot = filename.lastIndexOf('.');
+		return dot < 0 ? filename : filename.substring(0, dot);
+	}
+
+	private static String getShardFilename(String base, int index) {
+		return base + "_shard_" + index + ".h";
+	}
+
+	private static String getShardName(String name, int index) {
+		return name + "_shard_" + index;
+	}
+
+	/**
+	 * Updates the brace depth for a line of an initializer.  Braces in string
+	 * and char literals and in comments are ignored.
+	 *
+	 * @return true if the line contains code, rather than only a comment
+	 */
+	private boolean updateDepth(String line) {
+		boolean code = false;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+				continue;
+			}
+			if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+				break;
+			}
+			if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '{') {
+				depth++;
+			} else if (c == '}') {
+				depth--;
+			}
+			if (c != ' ' && c != '\t') {
+				code = true;
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * An array from the header.  The lines of the elements are spooled as
+	 * records, and each element is spooled as a record of its number of
+	 * lines, its size in chars and the number of bytes of its lines in the
+	 * line spool.  The last element is held back until the next element or
+	 * the end of the array, since trailing comments are added to it.
+	 */
+	private static class ShardArray {
+		private final String type;
+		private final String name;
+		private final SpoolFile lines = new SpoolFile();
+		private final SpoolFile elements = new SpoolFile();
+		private final ByteBuffer element = ByteBuffer.allocate(12);
+		private int count;
+		private boolean pending;
+		private int pendingLines;
+		private int pendingSize;
+		private int pendingBytes;
+
+		public ShardArray(String type, String name) {
+			this.type = type;
+			this.name = name;
+		}
+
+		/**
+		 * Spools a line.
+		 *
+		 * @return the number of bytes spooled
+		 */
+		public int addLine(String line) {
+			long start = lines.size();
+			lines.writeRecord(line.getBytes(StandardCharsets.UTF_8));
+			return (int) (lines.size() - start);
+		}
+
+		public void addElement(int elementLines, int elementSize, int elementBytes) {
+			flushElement();
+			pending = true;
+			pendingLines = elementLines;
+			pendingSize = elementSize;
+			pendingBytes = elementBytes;
+		}
+
+		public void flushElement() {
+			if (!pending) {
+				return;
+			}
+			element.clear();
+			element.putInt(pendingLines);
+			element.putInt(pendingSize);
+			element.putInt(pendingBytes);
+			elements.writeRecord(element.array());
+			count++;
+			pending = false;
+		}
+
+		public void close() {
+			lines.close();
+			elements.close();
+		}
+	}
+
+	/**
+	 * A range of element indexes, with the spool position of the first line
+	 * and the number of lines of each array in the range.
+	 */
+	private static class ShardRange {
+		private final int start;
+		private int end;
+		private final long[] positions;
+		private final int[] lines;
+
+		public ShardRange(int start, long[] positions) {
+			this.start = start;
+			this.positions = positions;
+			this.lines = new int[positions.length];
+		}
+	}
+}
@@ -1,17 +1,27 @@
 package org.twinecoin.test;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.twinecoin.test.crypt.BouncyCastleLoader;
+import org.twinecoin.test.crypt.EnginePool;
+import org.twinecoin.test.util.Config;
+import org.twinecoin.test.util.RunReport;
+import org.twinecoin.test.vectors.BinaryVectorFile;
 import org.twinecoin.test.vectors.Ed25519TestVectors;
 import org.twinecoin.test.vectors.HashTestVectors;
+import org.twinecoin.test.vectors.Secp256k1TestVectors;
 import org.twinecoin.test.vectors.U512TestVectors;
+import org.twinecoin.test.vectors.VectorGenerator;
+import org.twinecoin.test.vectors.VectorSink;
 
 public class TwineTest implements Runnable {
 
@@ -23,6 +33,9 @@ public class TwineTest implements Runnable {
 	};
 
 	public static void main(String[] args) {
+		if (!Config.parseArgs(args)) {
+			return;
+		}
 		if (!BouncyCastleLoader.init(TwineTest.class.getCanonicalName())) {
 			System.err.println("Initialization Failure for Bouncy Castle Provider");
 			return;
@@ -31,79 +44,302 @@ public class TwineTest implements Runnable {
 
 	@Override
 	public void run() {
-		writeFile("vectors_u512.h", U512TestVectors.generateVectors());
-		writeFile("vectors_hash.h", HashTestVectors.generateVectors());
-		writeFile("vectors_ed25519.h", Ed25519TestVectors.generateVectors());
-	}
+		List<OutputJob> jobs = new ArrayList<OutputJob>();
 
-	private static void writeFile(String filename, List<String> lines) {
-		File dir = new File("out");
+		boolean binaryOutput = Config.getBoolean("binary", false);
 
-		dir.mkdirs();
+		OutputCache cache = null;
+		if (Config.getBoolean("cache", false)) {
+			cache = new OutputCache(new File(Config.getString("cache.dir", "cache")));
+		}
 
-		File file = new File(dir, filename);
+		jobs.add(new OutputJob("vectors_u512.h", binaryOutput, U512TestVectors.getParameters(), new VectorGenerator() {
+			@Override
+			public void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+				U512TestVectors.generateVectors(sink, binary);
+			}
+		}));
+		jobs.add(new OutputJob("vectors_hash.h", binaryOutput, HashTestVectors.getParameters(), new VectorGenerator() {
+			@Override
+			public void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+				HashTestVectors.generateVectors(sink, binary);
+			}
+		}));
+		jobs.add(new OutputJob("vectors_ed25519.h", binaryOutput, Ed25519TestVectors.getParameters(), new VectorGenerator() {
+			@Override
+			public void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+				Ed25519TestVectors.generateVectors(sink, binary);
+			}
+		}));
+		jobs.add(new OutputJob("vectors_secp256k1.h", binaryOutput, Secp256k1TestVectors.getParameters(), new VectorGenerator() {
+			@Override
+			public void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+				Secp256k1TestVectors.generateVectors(sink, binary);
+			}
+		}));
 
-		FileOutputStream fos = null;
-		try {
-			fos = new FileOutputStream(file);
+		long shardSize = Config.getLong("shard.size", 0);
+		for (OutputJob job : jobs) {
+			job.shardSize = shardSize;
+		}
 
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+		if (binaryOutput) {
+			Map<String, String> parameters = new TreeMap<String, String>();
+			parameters.put("version", Integer.toString(BinaryVectorFile.VERSION));
+			jobs.add(new OutputJob("vectors_binary.h", false, parameters, new VectorGenerator() {
+				@Override
+				public void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+					BinaryVectorFile.generateFormatHeader(sink);
+				}
+			}));
+		}
 
-			for (String line : MIT_HEADER) {
-				writer.write(line);
-				writer.newLine();
+		RunReport report = null;
+		if (Config.getBoolean("report", true)) {
+			report = new RunReport();
+		}
+
+		for (OutputJob job : jobs) {
+			job.cache = cache;
+			if (report != null) {
+				job.report = report.addGenerator(job.filename);
 			}
+		}
 
-			String defineName = filename.toUpperCase().replace('.', '_');
-			writer.write("#ifndef " + defineName);
-			writer.newLine();
+		if (Config.getBoolean("concurrent", true)) {
+			runConcurrent(jobs);
+		} else {
+			for (OutputJob job : jobs) {
+				job.run();
+			}
+		}
 
-			writer.write("#define " + defineName);
-			writer.newLine();
+		if (cache != null) {
+			writeManifest(jobs);
+		}
 
-			writer.newLine();
+		if (report != null) {
+			report.finish();
+			report.setCounter("engine_pool_hits", EnginePool.getHits());
+			report.setCounter("engine_pool_misses", EnginePool.getMisses());
+			writeReport(report);
+		}
+	}
 
-			writer.write("/*");
-			writer.newLine();
+	/**
+	 * Writes the run report with the timings for each generator.
+	 */
+	private static void writeReport(RunReport report) {
+		File file = new File(getOutputDir(), "run_report.json");
+		try {
+			report.write(file);
+		} catch (IOException e) {
+			System.out.println("Unable to output file for writing, " + file);
+		}
+	}
 
-			writer.write(" *        TwineTest Java Test Vector Generator");
-			writer.newLine();
+	/**
+	 * Writes the manifest recording which files were reused from the cache
+	 * and which were generated.
+	 */
+	private static void writeManifest(List<OutputJob> jobs) {
+		List<String> entries = new ArrayList<String>();
+		for (OutputJob job : jobs) {
+			String status = job.reused ? "reused" : (job.fingerprint == null ? "uncached" : "generated");
+			for (String filename : job.getFilenames()) {
+				entries.add(filename + " " + status + " " + (job.fingerprint == null ? "-" : job.fingerprint));
+			}
+		}
+		File manifest = new File(getOutputDir(), "cache_manifest.txt");
+		try {
+			OutputCache.writeManifest(manifest, entries);
+		} catch (IOException e) {
+			System.out.println("Unable to output file for writing, " + manifest);
+		}
+	}
 
-			writer.write(" *");
-			writer.newLine();
+	/**
+	 * Runs the jobs on a worker pool, one thread per job.  Each generator
+	 * uses its own seeded random source, so the output files are identical
+	 * to those produced by running the jobs serially.
+	 */
+	private static void runConcurrent(List<OutputJob> jobs) {
+		ExecutorService executor = Executors.newFixedThreadPool(jobs.size());
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(jobs.size());
+			for (OutputJob job : jobs) {
+				futures.add(executor.submit(job));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IllegalStateException("Generator failed", cause);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-			writer.write(" *         AUTO-GENERATED FILE - DO NOT EDIT");
-			writer.newLine();
+	/**
+	 * Writes a header file and, if enabled, the binary vector file with the
+	 * same name and a .bin extension.  If the shard size is positive, the
+	 * header is split into shards by a {@link ShardedHeaderSink}.
+	 *
+	 * @return the filenames written, or null on failure
+	 */
+	private static List<String> writeFile(String filename, boolean binaryOutput, long shardSize, VectorGenerator generator) {
+		File dir = getOutputDir();
 
-			writer.write(" *");
-			writer.newLine();
+		File file = new File(dir, filename);
+		HeaderFileSink sink = null;
+		ShardedHeaderSink shardedSink = null;
+		BinaryVectorFile binary = null;
+		try {
+			RunReport.phase("write");
 
-			writer.write(" * This file was generated by TwineTest.  All edits should be submitted to");
-			writer.newLine();
+			if (shardSize > 0) {
+				shardedSink = new ShardedHeaderSink(dir, filename, shardSize);
+			} else {
+				sink = HeaderFileSink.open(dir, filename);
+			}
 
-			writer.write(" * the project at https://github.com/twinecoin/twinetest");
-			writer.newLine();
+			if (binaryOutput) {
+				file = new File(dir, getBinaryFilename(filename));
+				binary = BinaryVectorFile.create(dir, file.getName());
+				file = new File(dir, filename);
+			}
 
-			writer.write(" */");
-			writer.newLine();
+			generator.generateVectors(sink != null ? sink : shardedSink, binary);
 
-			for (String line : lines) {
-				writer.write(line);
-				writer.newLine();
-			}
+			RunReport.phase("write");
 
-			writer.newLine();
-			writer.write("#endif");
-			writer.newLine();
+			List<String> filenames;
+			if (sink != null) {
+				sink.finish();
+				filenames = new ArrayList<String>();
+				filenames.add(filename);
+			} else {
+				filenames = shardedSink.finish();
+			}
 
-			writer.close();
+			if (binary != null) {
+				file = binary.getFile();
+				binary.finish();
+				filenames.add(file.getName());
+			}
+			return filenames;
 		} catch (IOException e) {
 			System.out.println("Unable to output file for writing, " + file);
+			return null;
 		} finally {
-			if (fos != null) {
-				try {
-					fos.close();
-				} catch (IOException e) {}
+			if (sink != null) {
+				sink.close();
+			}
+			if (shardedSink != null) {
+				shardedSink.close();
+			}
+			if (binary != null) {
+				binary.close();
+			}
+		}
+	}
+
+	private static File getOutputDir() {
+		return new File("out");
+	}
+
+	private static String getBinaryFilename(String filename) {
+		int dot = filename.lastIndexOf('.');
+		return (dot < 0 ? filename : filename.substring(0, dot)) + ".bin";
+	}
+
+	private static class OutputJob implements Runnable {
+		private final String filename;
+		private final boolean binaryOutput;
+		private final Map<String, String> parameters;
+		private final VectorGenerator generator;
+		private OutputCache cache;
+		private RunReport.Generator report;
+		private long shardSize;
+		private String fingerprint;
+		private boolean reused;
+		private List<String> written;
+
+		public OutputJob(String filename, boolean binaryOutput, Map<String, String> parameters, VectorGenerator generator) {
+			this.filename = filename;
+			this.binaryOutput = binaryOutput;
+			this.parameters = parameters;
+			this.generator = generator;
+		}
+
+		public List<String> getFilenames() {
+			if (written != null) {
+				return written;
+			}
+			List<String> filenames = new ArrayList<String>(2);
+			filenames.add(filename);
+			if (binaryOutput) {
+				filenames.add(getBinaryFilename(filename));
+			}
+			return filenames;
+		}
+
+		@Override
+		public void run() {
+			if (report == null) {
+				generate();
+				return;
+			}
+
+			RunReport.setCurrent(report);
+			report.start();
+			try {
+				generate();
+			} finally {
+				report.finish();
+				RunReport.setCurrent(null);
+			}
+
+			report.setCached(reused);
+			for (String name : getFilenames()) {
+				report.addBytesWritten(new File(getOutputDir(), name).length());
+			}
+		}
+
+		private void generate() {
+			File dir = getOutputDir();
+			List<String> filenames = getFilenames();
+
+			// The shard filenames are only known once the header is generated
+			if (cache != null && shardSize <= 0) {
+				RunReport.phase("cache");
+				fingerprint = cache.getFingerprint(filenames, parameters);
+				if (fingerprint != null && cache.restore(fingerprint, dir, filenames)) {
+					reused = true;
+					return;
+				}
+			}
+
+			written = writeFile(filename, binaryOutput, shardSize, generator);
+			if (written == null || fingerprint == null) {
+				return;
+			}
+
+			RunReport.phase("cache");
+			try {
+				cache.store(fingerprint, dir, filenames);
+			} catch (IOException e) {
+				System.out.println("Unable to store output in cache, " + filename);
 			}
 		}
 	}
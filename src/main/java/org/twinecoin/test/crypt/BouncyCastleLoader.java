@@ -1,125 +1,130 @@
 package org.twinecoin.test.crypt;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.MalformedURLException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.Security;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.twinecoin.test.util.Config;
+
+/**
+ * Loads the Bouncy Castle Provider from the jar embedded in the resources.<br>
+ * <br>
+ * The jar is checked against its expected SHA-256 before any of its classes
+ * are loaded, which takes around 200 ms.  If the cache option is enabled,
+ * a verification stamp is kept in the cache directory, cache.dir.  The
+ * stamp records the size, modification time and file key of the file which
+ * holds the jar resource, either the jar itself or the application jar, and
+ * the jar is not hashed again while they are unchanged.  Without the cache
+ * option, nothing is written to disk and the jar is hashed on each start.
+ */
 public class BouncyCastleLoader {
-	private final static String SHA256Expected = "e78f96eb59066c94c94fb2d6b5eb80f52feac6f5f9776898634f8addec6e2137";
+	public final static String SHA256Expected = "e78f96eb59066c94c94fb2d6b5eb80f52feac6f5f9776898634f8addec6e2137";
 
 	private final static String jarFilename = "bcprov-jdk15on-1.65.jar";
 
 	private final static String bouncyCastleProviderName = "org.bouncycastle.jce.provider.BouncyCastleProvider";
 
+	private final static String applicationPackage = "org.twinecoin.test";
+
+	private final static String runReportName = "org.twinecoin.test.util.RunReport";
+
+	/**
+	 * Classes loaded by the parent class loader, since they are used before
+	 * the provider class loader exists
+	 */
+	private final static String[] sharedClasses = new String[] {
+		BouncyCastleLoader.class.getName(),
+		EmbeddedJarClassLoader.class.getName()
+	};
+
+	private final static Map<String, Long> startupNanos = new LinkedHashMap<String, Long>();
+
 	private final static Provider bouncyCastleProvider;
 
-	private final static URLClassLoader urlClassLoader;
+	private final static EmbeddedJarClassLoader jarClassLoader;
 
 	static {
-		File dir = new File("jars");
-		dir.mkdirs();
+		long startNanos = System.nanoTime();
 
-		boolean jarPresent = false;
+		URL jarURL = BouncyCastleLoader.class.getResource("/" + jarFilename);
 
-		File f = new File(dir, jarFilename);
+		byte[] jar = jarURL == null ? null : readResource(jarURL);
 
-		if (f.exists()) {
-			jarPresent = checkSHA256(f, SHA256Expected);
-		}
+		startNanos = addStartup("jar_read", startNanos);
 
-		if (!jarPresent) {
-			InputStream in = BouncyCastleLoader.class.getResourceAsStream("/" + jarFilename);
-			try {
-				if (in != null) {
-					OutputStream out = null;
-					try {
-						out = new FileOutputStream(f);
-						byte[] buf = new byte[16384];
-						int read = 1;
-						while (read > 0) {
-							read = in.read(buf);
-							if (read > 0) {
-								out.write(buf, 0, read);
-							}
-						}
-					} catch (IOException e) {
-					} finally {
-						if (out != null) {
-							try {
-								out.close();
-							} catch (IOException e) {}
-						}
+		boolean jarValid = false;
 
-					}
-				}
-			} finally {
-				if (in != null) {
-					try {
-						in.close();
-					} catch (IOException e) {}
+		if (jar != null) {
+			File container = getContainer(jarURL);
+			File stamp = getStampFile();
+			if (container != null && stamp != null && checkStamp(container, stamp, jar.length)) {
+				jarValid = true;
+				startNanos = addStartup("jar_verify_stamp", startNanos);
+			} else {
+				jarValid = checkSHA256(jar, SHA256Expected);
+				if (jarValid && container != null && stamp != null) {
+					writeStamp(container, stamp, jar.length);
 				}
+				startNanos = addStartup("jar_verify_hash", startNanos);
 			}
-			jarPresent = checkSHA256(f, SHA256Expected);
 		}
 
-		URL url  = null;
+		EmbeddedJarClassLoader jarCL = null;
 
-		if (jarPresent) {
+		if (jarValid) {
 			try {
-				url = f.toURI().toURL();
-			} catch (MalformedURLException e1) {
+				jarCL = new EmbeddedJarClassLoader(jar, jarURL, applicationPackage, sharedClasses, BouncyCastleLoader.class.getClassLoader());
+			} catch (IOException e) {
 			}
 		}
 
+		startNanos = addStartup("jar_index", startNanos);
+
 		Provider prov = null;
-		URLClassLoader urlCL = null;
-
-		if (url != null) {
-			ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
-
-			if (systemClassLoader instanceof URLClassLoader) {
-				URL[] systemURLs = ((URLClassLoader) systemClassLoader).getURLs();
-				if (systemURLs != null) {
-					URL[] newURLs = new URL[systemURLs.length + 1];
-					System.arraycopy(systemURLs, 0, newURLs, 0, systemURLs.length);
-					newURLs[newURLs.length - 1] = url;
-					urlCL = new URLClassLoader(newURLs, systemClassLoader);
-					Class<?> clazz = null;
-					try {
-						clazz = urlCL.loadClass(bouncyCastleProviderName);
-					} catch (ClassNotFoundException e) {
-					}
-					if (clazz != null) {
-						try {
-							Object p = clazz.newInstance();
-							if (p instanceof Provider) {
-								prov = (Provider) p;
-							}
-						} catch (InstantiationException e) {
-						} catch (IllegalAccessException e) {
-						}
+
+		if (jarCL != null) {
+			Class<?> clazz = null;
+			try {
+				clazz = jarCL.loadClass(bouncyCastleProviderName);
+			} catch (ClassNotFoundException e) {
+			}
+			if (clazz != null) {
+				try {
+					Object p = clazz.newInstance();
+					if (p instanceof Provider) {
+						prov = (Provider) p;
 					}
+				} catch (InstantiationException e) {
+				} catch (IllegalAccessException e) {
 				}
 			}
 		}
 
-		urlClassLoader = urlCL;
+		jarClassLoader = jarCL;
 
 		if (prov != null) {
 			Security.addProvider(prov);
 		}
 
 		bouncyCastleProvider = prov;
+
+		addStartup("provider_load", startNanos);
 	}
 
 	/**
@@ -129,16 +134,20 @@ public class BouncyCastleLoader {
 	 * a runnable of the named class is instantiated with the ClassLoader and 
 	 * the .run() method is called.<br>
 	 * <br>
+	 * The ClassLoader defines the Bouncy Castle classes directly from the
+	 * jar embedded in the resources, which is verified in memory, so nothing
+	 * is written to disk.<br>
+	 * <br>
 	 *
 	 * @return true if the provider has been loaded
 	 */
 	public static boolean init(String runnableName) {
-		if (bouncyCastleProvider == null || urlClassLoader == null) {
+		if (bouncyCastleProvider == null || jarClassLoader == null) {
 			return false;
 		}
 		Class<?> clazz = null;
 		try {
-			clazz	= urlClassLoader.loadClass(runnableName);
+			clazz	= jarClassLoader.loadClass(runnableName);
 		} catch (ClassNotFoundException e) {
 			return false;
 		}
@@ -154,80 +163,188 @@ public class BouncyCastleLoader {
 		if (r == null) {
 			return false;
 		}
+		reportStartup();
 		r.run();
 		return true;
 	}
 
-	private static boolean checkSHA256(File f, String expected) {
-		byte[] decoded = decodeHex(expected);
-		if (decoded == null) {
-			return false;
+	/**
+	 * Records a startup step.  The run report is created by the runnable, so
+	 * the steps are held until it is started.
+	 */
+	private static long addStartup(String name, long startNanos) {
+		long now = System.nanoTime();
+		startupNanos.put(name, now - startNanos);
+		return now;
+	}
+
+	/**
+	 * Passes the startup steps to the run report class seen by the runnable,
+	 * which is a different class to the one seen by this class, since it is
+	 * defined by the provider class loader.
+	 */
+	private static void reportStartup() {
+		try {
+			Class<?> report = jarClassLoader.loadClass(runReportName);
+			Method addStartup = report.getMethod("addStartup", String.class, long.class);
+			for (Map.Entry<String, Long> entry : startupNanos.entrySet()) {
+				addStartup.invoke(null, entry.getKey(), entry.getValue());
+			}
+		} catch (ClassNotFoundException e) {
+		} catch (NoSuchMethodException e) {
+		} catch (IllegalAccessException e) {
+		} catch (InvocationTargetException e) {
 		}
-		byte[] digest = null;
-		MessageDigest md;
+	}
+
+	/**
+	 * Gets the file which holds a resource.
+	 *
+	 * @return the file, or null if the resource is not in a local file
+	 */
+	private static File getContainer(URL url) {
 		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e1) {
-			// This should not be possible
+			if (url.getProtocol().equals("jar")) {
+				URLConnection connection = url.openConnection();
+				if (!(connection instanceof JarURLConnection)) {
+					return null;
+				}
+				url = ((JarURLConnection) connection).getJarFileURL();
+			}
+			if (!url.getProtocol().equals("file")) {
+				return null;
+			}
+			return new File(url.toURI());
+		} catch (IOException e) {
+			return null;
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the verification stamp file.  An invalid cache option is reported
+	 * when the runnable reads it, so it disables the stamp here.
+	 *
+	 * @return the stamp file, or null if the cache option is not enabled
+	 */
+	private static File getStampFile() {
+		try {
+			if (!Config.getBoolean("cache", false)) {
+				return null;
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return new File(Config.getString("cache.dir", "cache"), jarFilename + ".verified");
+	}
+
+	/**
+	 * Gets the attributes recorded in the verification stamp.  The file key
+	 * identifies the file, for example by device and inode, so a replaced
+	 * file does not match the stamp, even if its size and modification time
+	 * are unchanged.
+	 *
+	 * @return the stamp lines, or null if the attributes cannot be read
+	 */
+	private static String getStamp(File container, int length) {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(container.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+		Object fileKey = attributes.fileKey();
+		return "path=" + container.getAbsolutePath() + "\n" +
+				"size=" + attributes.size() + "\n" +
+				"mtime=" + attributes.lastModifiedTime().toMillis() + "\n" +
+				"file_key=" + (fileKey == null ? "" : fileKey.toString()) + "\n" +
+				"length=" + length + "\n" +
+				"sha256=" + SHA256Expected + "\n";
+	}
+
+	/**
+	 * Checks if the file which holds the jar matches the verification stamp
+	 * written when the jar was last hashed.
+	 *
+	 * @return true if the jar is unchanged since it was verified
+	 */
+	private static boolean checkStamp(File container, File stamp, int length) {
+		if (!stamp.exists()) {
+			return false;
+		}
+		String expected = getStamp(container, length);
+		if (expected == null) {
 			return false;
 		}
-		FileInputStream in = null;
+		byte[] stampBytes;
 		try {
-			in = new FileInputStream(f);
+			stampBytes = Files.readAllBytes(stamp.toPath());
+		} catch (IOException e) {
+			return false;
+		}
+		return expected.equals(new String(stampBytes, StandardCharsets.US_ASCII));
+	}
 
-			byte[] buf = new byte[16384];
+	/**
+	 * Writes the verification stamp for a jar which has been hashed.  If the
+	 * stamp cannot be written, the jar is hashed again on the next start.
+	 */
+	private static void writeStamp(File container, File stamp, int length) {
+		String contents = getStamp(container, length);
+		if (contents == null) {
+			return;
+		}
+		stamp.getParentFile().mkdirs();
+		try {
+			Files.write(stamp.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			stamp.delete();
+		}
+	}
 
+	private static byte[] readResource(URL url) {
+		InputStream in;
+		try {
+			in = url.openStream();
+		} catch (IOException e) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[65536];
 			int read = 1;
 			while (read > 0) {
 				read = in.read(buf);
 				if (read > 0) {
-					md.update(buf, 0, read);
+					out.write(buf, 0, read);
 				}
 			}
-			digest = md.digest();
+			return out.toByteArray();
 		} catch (IOException e) {
-			return false;
+			return null;
 		} finally {
-			if (in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {}
-			}
+			try {
+				in.close();
+			} catch (IOException e) {}
 		}
-
-		return Arrays.equals(digest, decoded);
 	}
 
-	private static byte[] decodeHex(String hex) {
-		if ((hex.length() & 1) != 0) {
-			return null;
-		}
-
-		byte[] decoded = new byte[hex.length() >> 1];
-
-		int j = 0;
-		for (int i = 0; i < decoded.length; i++) {
-			int v = (hexCharToInt(hex.charAt(j)) << 4) + hexCharToInt(hex.charAt(j + 1));
-			if (v < 0) {
-				return null;
-			}
-			decoded[i] = (byte) v;
-			j += 2;
+	private static boolean checkSHA256(byte[] data, String expected) {
+		byte[] decoded = HexCodec.decode(expected);
+		if (decoded == null) {
+			return false;
 		}
-
-		return decoded;
-	}
-
-	private static int hexCharToInt(char c) {
-		if (c >= '0' && c <= '9') {
-			return c - '0';
-		} else if (c >= 'A' && c <= 'F') {
-			return 10 + c - 'A';
-		} else if (c >= 'a' && c <= 'f') {
-			return 10 + c - 'a';
-		} else {
-			return -256;
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e1) {
+			// This should not be possible
+			return false;
 		}
+		return Arrays.equals(md.digest(data), decoded);
 	}
 
 }
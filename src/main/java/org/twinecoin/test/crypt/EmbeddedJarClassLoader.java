@@ -0,0 +1,466 @@
+package org.twinecoin.test.crypt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.CertPath;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class loader which defines classes directly from the bytes of a jar held
+ * in memory.<br>
+ * <br>
+ * The central directory of the jar is indexed once, when the loader is
+ * created, and entries are only inflated when a class or resource is
+ * requested.  Resources are served from memory through URLs with the
+ * "embeddedjar" protocol.  Nothing is written to disk.<br>
+ * <br>
+ * Classes in the jar are defined with a code source which carries the
+ * signers of the jar.  The signers are taken from the certificates in the
+ * signature block files, and apply to the entries listed in the manifest.
+ * The entry digests are not checked against the signatures, so the caller
+ * must verify the jar, as BouncyCastleLoader does by its SHA-256.<br>
+ * <br>
+ * Classes in the jar, and the application classes in the given package,
+ * are loaded by this loader before delegating to the parent.  This means
+ * that the application classes link against the classes in the jar, even
+ * if the parent class loader cannot see them.  Classes which hold state
+ * shared with the parent, such as the loader itself, are always loaded
+ * by the parent.
+ */
+public class EmbeddedJarClassLoader extends ClassLoader {
+
+	public final static String PROTOCOL = "embeddedjar";
+
+	private final static int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private final static int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private final static int END_HEADER_SIGNATURE = 0x06054b50;
+
+	private final static int LOCAL_HEADER_LENGTH = 30;
+	private final static int CENTRAL_HEADER_LENGTH = 46;
+	private final static int END_HEADER_LENGTH = 22;
+
+	private final static int METHOD_STORED = 0;
+	private final static int METHOD_DEFLATED = 8;
+
+	private final byte[] jar;
+
+	private final Map<String, Entry> entries;
+
+	private final Manifest manifest;
+
+	private final String applicationPrefix;
+
+	private final String[] sharedClasses;
+
+	private final Set<String> definedPackages = new HashSet<String>();
+
+	private final URLStreamHandler handler = new EntryStreamHandler();
+
+	/**
+	 * The domain of the entries signed by the signers of the jar
+	 */
+	private final ProtectionDomain signedDomain;
+
+	/**
+	 * The domain of the entries which are not listed in the manifest
+	 */
+	private final ProtectionDomain unsignedDomain;
+
+	/**
+	 * The application classes keep the code source of the application, so
+	 * that they can locate it.
+	 */
+	private final ProtectionDomain applicationDomain = EmbeddedJarClassLoader.class.getProtectionDomain();
+
+	/**
+	 * Creates a class loader for a jar.
+	 *
+	 * @param jar the bytes of the jar
+	 * @param location the location of the jar, used for the code source of
+	 *        its classes, or null if unknown
+	 * @param applicationPackage the package of the application classes which
+	 *        are loaded by this loader, rather than by the parent
+	 * @param sharedClasses the classes, including their nested classes, which
+	 *        are always loaded by the parent
+	 * @param parent the parent class loader
+	 * @throws IOException if the jar could not be indexed
+	 */
+	public EmbeddedJarClassLoader(byte[] jar, URL location, String applicationPackage, String[] sharedClasses, ClassLoader parent) throws IOException {
+		super(parent);
+		this.jar = jar;
+		this.entries = index(jar);
+		byte[] manifestBytes = readEntry(JarFile.MANIFEST_NAME);
+		this.manifest = manifestBytes == null ? null : new Manifest(new ByteArrayInputStream(manifestBytes));
+		this.applicationPrefix = applicationPackage + ".";
+		this.sharedClasses = sharedClasses.clone();
+		CodeSigner[] signers = manifest == null ? null : getSigners();
+		this.signedDomain = new ProtectionDomain(new CodeSource(location, signers), null, this, null);
+		this.unsignedDomain = new ProtectionDomain(new CodeSource(location, (CodeSigner[]) null), null, this, null);
+	}
+
+	/**
+	 * Gets the number of entries in the jar.
+	 *
+	 * @return the number of entries
+	 */
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				byte[] bytes = null;
+				ProtectionDomain domain = null;
+				if (!isShared(name)) {
+					String resourceName = name.replace('.', '/') + ".class";
+					Entry entry = entries.get(resourceName);
+					if (entry != null) {
+						bytes = read(entry);
+						domain = isSigned(resourceName) ? signedDomain : unsignedDomain;
+					} else if (name.startsWith(applicationPrefix)) {
+						bytes = readParentResource(resourceName);
+						domain = applicationDomain;
+					}
+				}
+				if (bytes == null) {
+					return super.loadClass(name, resolve);
+				}
+				definePackage(name);
+				clazz = defineClass(name, bytes, 0, bytes.length, domain);
+			}
+			if (resolve) {
+				resolveClass(clazz);
+			}
+			return clazz;
+		}
+	}
+
+	@Override
+	public URL getResource(String name) {
+		URL url = findResource(name);
+		if (url != null) {
+			return url;
+		}
+		return super.getResource(name);
+	}
+
+	@Override
+	public Enumeration<URL> getResources(String name) throws IOException {
+		List<URL> urls = new ArrayList<URL>();
+		URL url = findResource(name);
+		if (url != null) {
+			urls.add(url);
+		}
+		ClassLoader parent = getParent();
+		urls.addAll(Collections.list(parent == null ? ClassLoader.getSystemResources(name) : parent.getResources(name)));
+		return Collections.enumeration(urls);
+	}
+
+	@Override
+	public InputStream getResourceAsStream(String name) {
+		byte[] bytes = readEntry(name);
+		if (bytes != null) {
+			return new ByteArrayInputStream(bytes);
+		}
+		return super.getResourceAsStream(name);
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		if (!entries.containsKey(name)) {
+			return null;
+		}
+		try {
+			return new URL(PROTOCOL, null, -1, "/" + name, handler);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		URL url = findResource(name);
+		if (url == null) {
+			return Collections.enumeration(Collections.<URL>emptyList());
+		}
+		return Collections.enumeration(Collections.singletonList(url));
+	}
+
+	private boolean isShared(String name) {
+		for (String shared : sharedClasses) {
+			if (name.equals(shared) || name.startsWith(shared + "$")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isSigned(String resourceName) {
+		return manifest != null && manifest.getEntries().containsKey(resourceName);
+	}
+
+	/**
+	 * Defines the package of a class, unless this loader has already defined
+	 * it.
+	 */
+	private void definePackage(String className) {
+		int split = className.lastIndexOf('.');
+		if (split < 0) {
+			return;
+		}
+		String packageName = className.substring(0, split);
+		synchronized (definedPackages) {
+			if (!definedPackages.add(packageName)) {
+				return;
+			}
+			try {
+				definePackage(packageName, null, null, null, null, null, null, null);
+			} catch (IllegalArgumentException e) {
+				// Defined by the parent, on runtimes which check the ancestors
+			}
+		}
+	}
+
+	private byte[] readParentResource(String resourceName) {
+		ClassLoader parent = getParent();
+		InputStream in = parent == null ? ClassLoader.getSystemResourceAsStream(resourceName) : parent.getResourceAsStream(resourceName);
+		if (in == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[16384];
+			int read = 1;
+			while (read > 0) {
+				read = in.read(buf);
+				if (read > 0) {
+					out.write(buf, 0, read);
+				}
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Gets the signers of the jar from the certificates in its signature
+	 * block files.
+	 *
+	 * @return the signers, or null if the jar is not signed
+	 */
+	private CodeSigner[] getSigners() throws IOException {
+		List<CodeSigner> signers = new ArrayList<CodeSigner>();
+		CertificateFactory factory = null;
+		for (String name : entries.keySet()) {
+			if (!isSignatureBlock(name)) {
+				continue;
+			}
+			byte[] block = readEntry(name);
+			if (block == null) {
+				throw new IOException("Invalid signature block, " + name);
+			}
+			try {
+				if (factory == null) {
+					factory = CertificateFactory.getInstance("X.509");
+				}
+				CertPath path = factory.generateCertPath(new ByteArrayInputStream(block), "PKCS7");
+				if (!path.getCertificates().isEmpty()) {
+					signers.add(new CodeSigner(path, null));
+				}
+			} catch (CertificateException e) {
+				throw new IOException("Invalid signature block, " + name, e);
+			}
+		}
+		return signers.isEmpty() ? null : signers.toArray(new CodeSigner[signers.size()]);
+	}
+
+	private static boolean isSignatureBlock(String name) {
+		if (!name.startsWith("META-INF/") || name.indexOf('/', 9) >= 0) {
+			return false;
+		}
+		return name.endsWith(".DSA") || name.endsWith(".RSA") || name.endsWith(".EC");
+	}
+
+	/**
+	 * Reads and, if required, inflates a named entry.
+	 *
+	 * @return the entry contents, or null if there is no valid entry
+	 */
+	private byte[] readEntry(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? null : read(entry);
+	}
+
+	/**
+	 * Reads and, if required, inflates an entry.
+	 *
+	 * @return the entry contents, or null if the entry is invalid
+	 */
+	private byte[] read(Entry entry) {
+		ByteBuffer buf = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+		int local = entry.localHeaderOffset;
+		if (local < 0 || local > jar.length - LOCAL_HEADER_LENGTH || buf.getInt(local) != LOCAL_HEADER_SIGNATURE) {
+			return null;
+		}
+		int dataOffset = local + LOCAL_HEADER_LENGTH + (buf.getShort(local + 26) & 0xFFFF) + (buf.getShort(local + 28) & 0xFFFF);
+		if (dataOffset > jar.length - entry.compressedSize) {
+			return null;
+		}
+
+		if (entry.method == METHOD_STORED) {
+			if (entry.compressedSize != entry.size) {
+				return null;
+			}
+			byte[] data = new byte[entry.size];
+			System.arraycopy(jar, dataOffset, data, 0, entry.size);
+			return data;
+		}
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(jar, dataOffset, entry.compressedSize);
+			byte[] data = new byte[entry.size];
+			int inflated = 0;
+			while (inflated < data.length) {
+				int count = inflater.inflate(data, inflated, data.length - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					return null;
+				}
+				inflated += count;
+			}
+			return data;
+		} catch (DataFormatException e) {
+			return null;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Indexes the central directory of a jar.  The central directory records
+	 * the sizes of every entry, even those written with data descriptors.
+	 * Zip64 jars are not supported.
+	 */
+	private static Map<String, Entry> index(byte[] jar) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+
+		int end = -1;
+		for (int i = jar.length - END_HEADER_LENGTH; i >= 0 && i >= jar.length - END_HEADER_LENGTH - 0xFFFF; i--) {
+			if (buf.getInt(i) == END_HEADER_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("End of central directory not found");
+		}
+
+		int count = buf.getShort(end + 10) & 0xFFFF;
+		int offset = buf.getInt(end + 16);
+
+		Map<String, Entry> entries = new HashMap<String, Entry>(count * 2);
+		for (int i = 0; i < count; i++) {
+			if (offset < 0 || offset > end - CENTRAL_HEADER_LENGTH || buf.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+				throw new IOException("Invalid central directory entry " + i);
+			}
+			int method = buf.getShort(offset + 10) & 0xFFFF;
+			int compressedSize = buf.getInt(offset + 20);
+			int size = buf.getInt(offset + 24);
+			int nameLength = buf.getShort(offset + 28) & 0xFFFF;
+			int extraLength = buf.getShort(offset + 30) & 0xFFFF;
+			int commentLength = buf.getShort(offset + 32) & 0xFFFF;
+			int localHeaderOffset = buf.getInt(offset + 42);
+
+			if (offset + CENTRAL_HEADER_LENGTH + nameLength > end) {
+				throw new IOException("Invalid central directory entry " + i);
+			}
+			String name = new String(jar, offset + CENTRAL_HEADER_LENGTH, nameLength, "UTF-8");
+
+			if (!name.endsWith("/")) {
+				if ((method != METHOD_STORED && method != METHOD_DEFLATED) || compressedSize < 0 || size < 0) {
+					throw new IOException("Unsupported entry " + name);
+				}
+				entries.put(name, new Entry(method, compressedSize, size, localHeaderOffset));
+			}
+
+			offset += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	/**
+	 * Opens the entries named by the resource URLs of this loader.
+	 */
+	private class EntryStreamHandler extends URLStreamHandler {
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			final byte[] bytes = readEntry(url.getFile().substring(1));
+			if (bytes == null) {
+				throw new FileNotFoundException(url.toString());
+			}
+			return new URLConnection(url) {
+				@Override
+				public void connect() {
+					connected = true;
+				}
+
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(bytes);
+				}
+
+				@Override
+				public int getContentLength() {
+					return bytes.length;
+				}
+			};
+		}
+	}
+
+	private static class Entry {
+		private final int method;
+		private final int compressedSize;
+		private final int size;
+		private final int localHeaderOffset;
+
+		public Entry(int method, int compressedSize, int size, int localHeaderOffset) {
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.twinecoin.test.crypt;
+
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread local pool of Bouncy Castle JCA engines.<br>
+ * <br>
+ * Looking up an engine goes through provider resolution, which is slow
+ * compared to the operations performed by the test vector generators.
+ * Each thread keeps one engine per type and algorithm, created on first
+ * use.<br>
+ * <br>
+ * Signature engines must be initialised with initSign or initVerify
+ * before each use, which resets any state left by a previous use.
+ * KeyFactory engines are stateless.  An engine must not be retained or
+ * passed to another thread.
+ */
+public class EnginePool {
+
+	private final static AtomicLong hits = new AtomicLong();
+
+	private final static AtomicLong misses = new AtomicLong();
+
+	private final static ThreadLocal<Map<String, Object>> localEngines = new ThreadLocal<Map<String, Object>>() {
+		protected Map<String, Object> initialValue() {
+			return new HashMap<String, Object>();
+		}
+	};
+
+	/**
+	 * Gets a thread local KeyFactory.
+	 *
+	 * @param algorithm the algorithm
+	 * @return the key factory or null on failure
+	 */
+	public static KeyFactory getKeyFactory(String algorithm) {
+		String key = "KeyFactory." + algorithm;
+		Map<String, Object> engines = localEngines.get();
+		KeyFactory engine = (KeyFactory) engines.get(key);
+		if (engine != null) {
+			hits.incrementAndGet();
+			return engine;
+		}
+		misses.incrementAndGet();
+		try {
+			engine = KeyFactory.getInstance(algorithm, "BC");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (NoSuchProviderException e) {
+			return null;
+		}
+		engines.put(key, engine);
+		return engine;
+	}
+
+	/**
+	 * Gets a thread local Signature.  It must be initialised before use.
+	 *
+	 * @param algorithm the algorithm
+	 * @return the signature or null on failure
+	 */
+	public static Signature getSignature(String algorithm) {
+		String key = "Signature." + algorithm;
+		Map<String, Object> engines = localEngines.get();
+		Signature engine = (Signature) engines.get(key);
+		if (engine != null) {
+			hits.incrementAndGet();
+			return engine;
+		}
+		misses.incrementAndGet();
+		try {
+			engine = Signature.getInstance(algorithm, "BC");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (NoSuchProviderException e) {
+			return null;
+		}
+		engines.put(key, engine);
+		return engine;
+	}
+
+	/**
+	 * Gets the number of requests served by an existing engine.
+	 *
+	 * @return the number of hits
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of requests which created a new engine.
+	 *
+	 * @return the number of misses
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+}
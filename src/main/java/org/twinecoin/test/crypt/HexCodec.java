@@ -0,0 +1,282 @@
+package org.twinecoin.test.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven hex encoding and decoding.<br>
+ * <br>
+ * Encoding looks up both chars for a byte in a single table of pairs and
+ * writes them into a caller supplied buffer, so no String is created per
+ * byte.  Encoded hex is lower case.  Decoding accepts upper and lower case
+ * and returns null or -1, rather than throwing, for invalid input.
+ */
+public class HexCodec {
+
+	private final static char[] hexChars = new char[] {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+	/**
+	 * The two hex chars for each byte value, at index 2 * b
+	 */
+	private final static char[] hexPairs = new char[512];
+
+	/**
+	 * The two hex chars for each byte value, as ASCII bytes
+	 */
+	private final static byte[] hexPairBytes = new byte[512];
+
+	private final static String[] hexStrings = new String[256];
+
+	/**
+	 * The value of each ASCII hex char, or -1 for chars which are not hex
+	 */
+	private final static byte[] hexValues = new byte[128];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			hexPairs[i << 1] = hexChars[i >> 4];
+			hexPairs[(i << 1) + 1] = hexChars[i & 0xF];
+			hexPairBytes[i << 1] = (byte) hexChars[i >> 4];
+			hexPairBytes[(i << 1) + 1] = (byte) hexChars[i & 0xF];
+			hexStrings[i] = new String(hexPairs, i << 1, 2);
+		}
+		for (int i = 0; i < 128; i++) {
+			hexValues[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			hexValues['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			hexValues['a' + i] = (byte) (10 + i);
+			hexValues['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	/**
+	 * Gets the two hex chars for a byte.
+	 *
+	 * @param b the byte, only the low 8 bits are used
+	 * @return the hex string
+	 */
+	public static String getHex(int b) {
+		return hexStrings[b & 0xFF];
+	}
+
+	/**
+	 * Encodes bytes as a hex string.
+	 *
+	 * @param src the bytes
+	 * @return the hex string
+	 */
+	public static String encode(byte[] src) {
+		char[] buf = new char[src.length << 1];
+		encode(src, 0, src.length, buf, 0);
+		return new String(buf);
+	}
+
+	/**
+	 * Writes the two hex chars for a byte into a buffer.
+	 *
+	 * @param b the byte, only the low 8 bits are used
+	 * @param dst the buffer
+	 * @param pos the position of the first char
+	 * @return the position after the last char
+	 */
+	public static int encodeByte(int b, char[] dst, int pos) {
+		int i = (b & 0xFF) << 1;
+		dst[pos] = hexPairs[i];
+		dst[pos + 1] = hexPairs[i + 1];
+		return pos + 2;
+	}
+
+	/**
+	 * Writes the 16 hex chars for a 64-bit word, most significant first,
+	 * into a buffer.
+	 *
+	 * @param word the word
+	 * @param dst the buffer
+	 * @param pos the position of the first char
+	 * @return the position after the last char
+	 */
+	public static int encodeLong(long word, char[] dst, int pos) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			int i = (((int) (word >>> shift)) & 0xFF) << 1;
+			dst[pos++] = hexPairs[i];
+			dst[pos++] = hexPairs[i + 1];
+		}
+		return pos;
+	}
+
+	/**
+	 * Writes the hex chars for a range of bytes into a buffer.  The buffer
+	 * must have space for 2 * len chars.
+	 *
+	 * @param src the bytes
+	 * @param off the index of the first byte
+	 * @param len the number of bytes
+	 * @param dst the buffer
+	 * @param pos the position of the first char
+	 * @return the position after the last char
+	 */
+	public static int encode(byte[] src, int off, int len, char[] dst, int pos) {
+		int end = off + len;
+		for (int j = off; j < end; j++) {
+			int i = (src[j] & 0xFF) << 1;
+			dst[pos++] = hexPairs[i];
+			dst[pos++] = hexPairs[i + 1];
+		}
+		return pos;
+	}
+
+	/**
+	 * Writes the hex chars for a range of bytes into a buffer as ASCII bytes.
+	 * The buffer must have space for 2 * len bytes.
+	 *
+	 * @param src the bytes
+	 * @param off the index of the first byte
+	 * @param len the number of bytes
+	 * @param dst the buffer
+	 * @param pos the position of the first ASCII byte
+	 * @return the position after the last ASCII byte
+	 */
+	public static int encode(byte[] src, int off, int len, byte[] dst, int pos) {
+		int end = off + len;
+		for (int j = off; j < end; j++) {
+			int i = (src[j] & 0xFF) << 1;
+			dst[pos++] = hexPairBytes[i];
+			dst[pos++] = hexPairBytes[i + 1];
+		}
+		return pos;
+	}
+
+	/**
+	 * Writes the hex chars for a range of bytes into a buffer as ASCII bytes,
+	 * starting at the buffer's position.  The buffer must have 2 * len bytes
+	 * remaining.
+	 *
+	 * @param src the bytes
+	 * @param off the index of the first byte
+	 * @param len the number of bytes
+	 * @param dst the buffer
+	 */
+	public static void encode(byte[] src, int off, int len, ByteBuffer dst) {
+		if (dst.hasArray()) {
+			int pos = dst.arrayOffset() + dst.position();
+			if (dst.remaining() < len << 1) {
+				throw new IllegalArgumentException("Insufficient space in buffer for hex encoding");
+			}
+			encode(src, off, len, dst.array(), pos);
+			dst.position(dst.position() + (len << 1));
+			return;
+		}
+		int end = off + len;
+		for (int j = off; j < end; j++) {
+			int i = (src[j] & 0xFF) << 1;
+			dst.put(hexPairBytes[i]);
+			dst.put(hexPairBytes[i + 1]);
+		}
+	}
+
+	/**
+	 * Writes a range of bytes into a buffer as C escapes, \xNN for each
+	 * byte.  The buffer must have space for 4 * len chars.
+	 *
+	 * @param src the bytes
+	 * @param off the index of the first byte
+	 * @param len the number of bytes
+	 * @param dst the buffer
+	 * @param pos the position of the first char
+	 * @return the position after the last char
+	 */
+	public static int encodeEscaped(byte[] src, int off, int len, char[] dst, int pos) {
+		int end = off + len;
+		for (int j = off; j < end; j++) {
+			int i = (src[j] & 0xFF) << 1;
+			dst[pos++] = '\\';
+			dst[pos++] = 'x';
+			dst[pos++] = hexPairs[i];
+			dst[pos++] = hexPairs[i + 1];
+		}
+		return pos;
+	}
+
+	/**
+	 * Decodes a hex string.
+	 *
+	 * @param hex the hex string
+	 * @return the bytes, or null if the string has an odd length or contains
+	 *         a char which is not hex
+	 */
+	public static byte[] decode(CharSequence hex) {
+		if ((hex.length() & 1) != 0) {
+			return null;
+		}
+		byte[] decoded = new byte[hex.length() >> 1];
+		if (decode(hex, 0, hex.length(), decoded, 0) < 0) {
+			return null;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Decodes a range of hex chars into a buffer.  The buffer must have space
+	 * for len / 2 bytes.
+	 *
+	 * @param src the hex chars
+	 * @param off the index of the first char
+	 * @param len the number of chars, which must be even
+	 * @param dst the buffer
+	 * @param pos the position of the first byte
+	 * @return the position after the last byte, or -1 if the length is odd
+	 *         or a char is not hex
+	 */
+	public static int decode(CharSequence src, int off, int len, byte[] dst, int pos) {
+		if ((len & 1) != 0) {
+			return -1;
+		}
+		int end = off + len;
+		for (int j = off; j < end; j += 2) {
+			int v = (hexValue(src.charAt(j)) << 4) | hexValue(src.charAt(j + 1));
+			if (v < 0) {
+				return -1;
+			}
+			dst[pos++] = (byte) v;
+		}
+		return pos;
+	}
+
+	/**
+	 * Decodes a range of hex chars into a buffer, starting at the buffer's
+	 * position.  The buffer must have len / 2 bytes remaining.  If the input
+	 * is invalid, the buffer's position is unchanged.
+	 *
+	 * @param src the hex chars
+	 * @param off the index of the first char
+	 * @param len the number of chars, which must be even
+	 * @param dst the buffer
+	 * @return true if the chars were decoded
+	 */
+	public static boolean decode(CharSequence src, int off, int len, ByteBuffer dst) {
+		if ((len & 1) != 0) {
+			return false;
+		}
+		int end = off + len;
+		for (int j = off; j < end; j += 2) {
+			if (((hexValue(src.charAt(j)) << 4) | hexValue(src.charAt(j + 1))) < 0) {
+				return false;
+			}
+		}
+		for (int j = off; j < end; j += 2) {
+			dst.put((byte) ((hexValue(src.charAt(j)) << 4) | hexValue(src.charAt(j + 1))));
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the value of a hex char.
+	 *
+	 * @return the value, or a negative number if the char is not hex
+	 */
+	private static int hexValue(char c) {
+		return c < 128 ? hexValues[c] : -256;
+	}
+}
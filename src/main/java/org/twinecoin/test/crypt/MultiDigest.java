@@ -0,0 +1,109 @@
+package org.twinecoin.test.crypt;
+
+import java.security.MessageDigest;
+
+/**
+ * Computes all the supported hashes of a message in a single pass.<br>
+ * <br>
+ * Each chunk of the message is fed to the SHA256, SHA512 and RIPEMD160
+ * digests in turn, so the message is only traversed once.  The double
+ * hashes are derived from the single hashes, since DSHA256(m) is
+ * SHA256(SHA256(m)), and similarly for the other algorithms.<br>
+ * <br>
+ * Repeated messages are tiled into a buffer, so long repeats of short
+ * messages are fed to the digests in large blocks rather than one
+ * message at a time.
+ */
+public class MultiDigest {
+
+	public final static int SHA256_INDEX = 0;
+	public final static int SHA512_INDEX = 1;
+	public final static int RIPEMD160_INDEX = 2;
+	public final static int DSHA256_INDEX = 3;
+	public final static int DSHA512_INDEX = 4;
+	public final static int DRIPEMD160_INDEX = 5;
+
+	public final static int HASH_COUNT = 6;
+
+	private final static int TILE_SIZE = 65536;
+
+	private final static ThreadLocal<byte[]> localTile = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[TILE_SIZE];
+		}
+	};
+
+	/**
+	 * Computes the hashes of a message repeated a number of times.  The
+	 * thread local digests are used, so this may be called concurrently
+	 * from different threads.
+	 *
+	 * @param message the message
+	 * @param repeat the number of times the message is repeated
+	 * @return the hashes, indexed by the _INDEX constants, or null on failure
+	 */
+	public static byte[][] digest(byte[] message, int repeat) {
+		MessageDigest[] mds = new MessageDigest[] {
+				SHA256.getSHA256MessageDigest(),
+				SHA512.getSHA512MessageDigest(),
+				RIPEMD160.getRIPEMD160MessageDigest()
+		};
+
+		for (MessageDigest md : mds) {
+			if (md == null) {
+				return null;
+			}
+			md.reset();
+		}
+
+		update(mds, message, repeat);
+
+		byte[][] hashes = new byte[HASH_COUNT][];
+		for (int i = 0; i < mds.length; i++) {
+			MessageDigest md = mds[i];
+			byte[] hash = md.digest();
+			md.update(hash);
+			hashes[i] = hash;
+			hashes[i + mds.length] = md.digest();
+		}
+		return hashes;
+	}
+
+	/**
+	 * Feeds a repeated message to the digests.  As many whole copies of the
+	 * message as fit are written into the tile buffer, the full tile is fed
+	 * for each group of copies and then the remaining copies are fed from
+	 * the start of the tile.
+	 */
+	private static void update(MessageDigest[] mds, byte[] message, int repeat) {
+		int copies = TILE_SIZE / Math.max(1, message.length);
+		if (repeat <= 1 || copies <= 1) {
+			for (int i = 0; i < repeat; i++) {
+				for (MessageDigest md : mds) {
+					md.update(message);
+				}
+			}
+			return;
+		}
+
+		copies = Math.min(copies, repeat);
+
+		byte[] tile = localTile.get();
+		for (int i = 0; i < copies; i++) {
+			System.arraycopy(message, 0, tile, i * message.length, message.length);
+		}
+
+		int tileLength = copies * message.length;
+		int tiles = repeat / copies;
+		int remainder = (repeat % copies) * message.length;
+
+		for (int i = 0; i < tiles; i++) {
+			for (MessageDigest md : mds) {
+				md.update(tile, 0, tileLength);
+			}
+		}
+		for (MessageDigest md : mds) {
+			md.update(tile, 0, remainder);
+		}
+	}
+}
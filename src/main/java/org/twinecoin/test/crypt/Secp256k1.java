@@ -1,10 +1,9 @@
 package org.twinecoin.test.crypt;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
@@ -17,25 +16,42 @@ import java.security.spec.EncodedKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
-
-import javax.crypto.KeyAgreement;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.crypto.signers.StandardDSAEncoding;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.twinecoin.test.util.Parallel;
 
 public class Secp256k1 {
 
-	private static final byte[] privatePrefix = hexDecode("3047020100301006072A8648CE3D020106052B8104000A0430302E0201010420");
-	private static final byte[] privateSuffix = hexDecode("A00706052B8104000A");
+	private static final byte[] privatePrefix = HexCodec.decode("3047020100301006072A8648CE3D020106052B8104000A0430302E0201010420");
+	private static final byte[] privateSuffix = HexCodec.decode("A00706052B8104000A");
 
 	private static final int privateLength = privatePrefix.length + privateSuffix.length + 32;
 	private static final int privateKeyStart = privatePrefix.length;
 	private static final int privateSuffixStart = privatePrefix.length + 32;
 
-	private static final byte[] publicCompressedPrefix = hexDecode("3036301006072a8648ce3d020106052b8104000a032200");
-	private static final byte[] publicUncompressedPrefix = hexDecode("3056301006072a8648ce3d020106052b8104000a034200");
+	private static final byte[] publicCompressedPrefix = HexCodec.decode("3036301006072a8648ce3d020106052b8104000a032200");
+	private static final byte[] publicUncompressedPrefix = HexCodec.decode("3056301006072a8648ce3d020106052b8104000a034200");
+
+	/**
+	 * The minimum batch size which is verified on the worker threads
+	 */
+	private static final int PARALLEL_BATCH_SIZE = 64;
 
 	private static final ECPublicKey publicKeyG;
 	private static final BigInteger n;
 	private static final BigInteger p;
-	private static final byte[] testMessage = hexDecode("0123456789ABCDEFFEDBCA98765432100123456789ABCDEFFEDBCA9876543210");
 
 	static {
 		ECPublicKey publicKeyGLocal = null;
@@ -87,12 +103,14 @@ public class Secp256k1 {
 
 		EncodedKeySpec spec = new PKCS8EncodedKeySpec(encoded);
 
+		KeyFactory kf = EnginePool.getKeyFactory("EC");
+		if (kf == null) {
+			return null;
+		}
+
 		try {
-			KeyFactory kf = KeyFactory.getInstance("EC", "BC");
 			PrivateKey key = kf.generatePrivate(spec);
 			return (ECPrivateKey) key;
-		} catch (NoSuchAlgorithmException e) {
-		} catch (NoSuchProviderException e) {
 		} catch (InvalidKeySpecException e) {
 		} catch (ClassCastException e) {
 		}
@@ -110,19 +128,55 @@ public class Secp256k1 {
 		if (message.length != 32) {
 			throw new IllegalArgumentException("Message must be 32 bytes");
 		}
+		Signature signer = EnginePool.getSignature("NONEwithECDSA");
+		if (signer == null) {
+			return null;
+		}
+
 		try {
-			Signature signer = Signature.getInstance("NONEwithECDSA", "BC");
 			signer.initSign(pri);
 			signer.update(message);
 			return signer.sign();
 		} catch (SignatureException e) {
 		} catch (InvalidKeyException e) {
-		} catch (NoSuchAlgorithmException e) {
-		} catch (NoSuchProviderException e) {
 		}
 		return null;
 	}
 
+	/**
+	 * Signs a message with a deterministic nonce (RFC 6979, using
+	 * HMAC-SHA256), so the signature depends only on the key and the
+	 * message.
+	 *
+	 * @param pri the private key
+	 * @param message the 32 byte message
+	 * @return the DER encoded signature or null on failure
+	 */
+	public static byte[] signDeterministic(ECPrivateKey pri, byte[] message) {
+		if (pri == null) {
+			throw new NullPointerException("Private key may not be null");
+		}
+		if (message == null) {
+			throw new NullPointerException("Message may not be null");
+		}
+		if (message.length != 32) {
+			throw new IllegalArgumentException("Message must be 32 bytes");
+		}
+
+		X9ECParameters params = Secp256k1FixedBase.getParameters();
+		ECDomainParameters domain = new ECDomainParameters(params.getCurve(), params.getG(), params.getN(), params.getH());
+
+		ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+		signer.init(true, new ECPrivateKeyParameters(pri.getS(), domain));
+		BigInteger[] rs = signer.generateSignature(message);
+
+		try {
+			return StandardDSAEncoding.INSTANCE.encode(params.getN(), rs[0], rs[1]);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	public static boolean verify(ECPublicKey pub, byte[] message, byte[] sig) {
 		if (pub == null) {
 			throw new NullPointerException("Public key may not be null");
@@ -136,63 +190,136 @@ public class Secp256k1 {
 		if (message.length != 32) {
 			throw new IllegalArgumentException("Message must be 32 bytes");
 		}
+		Signature verifier = EnginePool.getSignature("NONEwithECDSA");
+		if (verifier == null) {
+			return false;
+		}
+
 		try {
-			Signature verifier = Signature.getInstance("NONEwithECDSA", "BC");
 			verifier.initVerify(pub);
 			verifier.update(message);
 			return verifier.verify(sig);
 		} catch (SignatureException e) {
 		} catch (InvalidKeyException e) {
-		} catch (NoSuchAlgorithmException e) {
-		} catch (NoSuchProviderException e) {
 		}
 		return false;
 	}
 
+	/**
+	 * Verifies a batch of signatures.  Each signature is checked by a single
+	 * multi-scalar multiplication, u1 * G + u2 * Q, where the doublings are
+	 * shared between the two scalars.  Large batches are spread across the
+	 * worker threads.<br>
+	 * <br>
+	 * ECDSA signatures only contain the x coordinate of R, so the signatures
+	 * cannot be combined into a single check.  Each result is computed
+	 * separately, which identifies the individual failures directly.
+	 *
+	 * @param pubs the public keys
+	 * @param messages the 32 byte messages
+	 * @param sigs the DER encoded signatures
+	 * @return a bit set where bit i is set if signature i is valid
+	 */
+	public static BitSet verify(final ECPublicKey[] pubs, final byte[][] messages, final byte[][] sigs) {
+		if (pubs.length != messages.length || pubs.length != sigs.length) {
+			throw new IllegalArgumentException("Public key, message and signature arrays must have the same length");
+		}
+
+		BitSet valid = new BitSet(pubs.length);
+
+		if (pubs.length < PARALLEL_BATCH_SIZE) {
+			for (int i = 0; i < pubs.length; i++) {
+				valid.set(i, verifyPoint(pubs[i], messages[i], sigs[i]));
+			}
+			return valid;
+		}
+
+		List<Boolean> results = Parallel.map(0, pubs.length, new Parallel.IndexedTask<Boolean>() {
+			@Override
+			public Boolean compute(int i) {
+				return verifyPoint(pubs[i], messages[i], sigs[i]);
+			}
+		});
+		for (int i = 0; i < pubs.length; i++) {
+			valid.set(i, results.get(i));
+		}
+		return valid;
+	}
+
+	/**
+	 * Verifies a signature directly with curve arithmetic.  This follows the
+	 * NONEwithECDSA verification, including strict DER decoding of the
+	 * signature.
+	 */
+	private static boolean verifyPoint(ECPublicKey pub, byte[] message, byte[] sig) {
+		if (pub == null) {
+			throw new NullPointerException("Public key may not be null");
+		}
+		if (sig == null) {
+			throw new NullPointerException("Signature may not be null");
+		}
+		if (message == null) {
+			throw new NullPointerException("Message may not be null");
+		}
+		if (message.length != 32) {
+			throw new IllegalArgumentException("Message must be 32 bytes");
+		}
+
+		BigInteger order = Secp256k1FixedBase.getParameters().getN();
+
+		BigInteger[] rs;
+		try {
+			rs = StandardDSAEncoding.INSTANCE.decode(order, sig);
+		} catch (IOException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		} catch (IllegalStateException e) {
+			return false;
+		} catch (ClassCastException e) {
+			return false;
+		}
+
+		BigInteger r = rs[0];
+		BigInteger s = rs[1];
+		if (r.signum() <= 0 || s.signum() <= 0) {
+			return false;
+		}
+
+		ECCurve curve = Secp256k1FixedBase.getCurve();
+		ECPoint q;
+		try {
+			q = curve.validatePoint(pub.getW().getAffineX(), pub.getW().getAffineY());
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+
+		BigInteger e = new BigInteger(1, message);
+		BigInteger w = s.modInverse(order);
+		BigInteger u1 = e.multiply(w).mod(order);
+		BigInteger u2 = r.multiply(w).mod(order);
+
+		ECPoint point = ECAlgorithms.sumOfTwoMultiplies(Secp256k1FixedBase.getParameters().getG(), u1, q, u2).normalize();
+		if (point.isInfinity()) {
+			return false;
+		}
+
+		return point.getAffineXCoord().toBigInteger().mod(order).equals(r);
+	}
+
 	public static ECPublicKey getECPublicKey(ECPrivateKey pri) {
 		if (pri == null) {
 			throw new NullPointerException("Private key may not be null");
 		}
 
-		// There is no ECPrivateKey.getPublicKey() method.
-		// ECDH does point multiplication internally, so can be used
-		// instead.  It returns the x coordinate of the public key.
-		// Both of the corresponding y values are checked to determine
-		// which one is correct.
-		if (publicKeyG == null) {
+		// There is no ECPrivateKey.getPublicKey() method, so the public
+		// key point is computed directly from the fixed base table.
+		ECPoint point = Secp256k1FixedBase.multiply(pri.getS());
+		if (point.isInfinity()) {
 			return null;
 		}
 
-		try {
-			KeyAgreement ka = KeyAgreement.getInstance("ECDH");
-			ka.init(pri);
-			ka.doPhase(publicKeyG, true);
-			byte[] encoded = ka.generateSecret();
-			byte[] encoded2 = new byte[33];
-			System.arraycopy(encoded, 0, encoded2, 1, 32);
-			BigInteger x = new BigInteger(encoded2);
-
-			byte[] sig = sign(pri, testMessage);
-			if (sig == null) {
-				return null;
-			}
-			ECPublicKey pub = getECPublicKey(x, false);
-			if (pub != null) {
-				if (verify(pub, testMessage, sig)) {
-					return pub;
-				}
-			}
-			pub = getECPublicKey(x, true);
-			if (pub != null) {
-				if (verify(pub, testMessage, sig)) {
-					return pub;
-				}
-			}
-		} catch (InvalidKeyException e) {
-		} catch (IllegalStateException e) {
-		} catch (NoSuchAlgorithmException e) {
-		}
-		return null;
+		return getECPublicKey(point.getAffineXCoord().toBigInteger(), point.getAffineYCoord().toBigInteger());
 	}
 
 	public static ECPublicKey getECPublicKey(BigInteger x, BigInteger y) {
@@ -218,12 +345,14 @@ public class Secp256k1 {
 
 		EncodedKeySpec spec = new X509EncodedKeySpec(encoded);
 
+		KeyFactory kf = EnginePool.getKeyFactory("EC");
+		if (kf == null) {
+			return null;
+		}
+
 		try {
-			KeyFactory kf = KeyFactory.getInstance("EC", "BC");
 			PublicKey key = kf.generatePublic(spec);
 			return (ECPublicKey) key;
-		} catch (NoSuchAlgorithmException e) {
-		} catch (NoSuchProviderException e) {
 		} catch (InvalidKeySpecException e) {
 		} catch (ClassCastException e) {
 		}
@@ -246,18 +375,46 @@ public class Secp256k1 {
 
 		EncodedKeySpec spec = new X509EncodedKeySpec(encoded);
 
+		KeyFactory kf = EnginePool.getKeyFactory("EC");
+		if (kf == null) {
+			return null;
+		}
+
 		try {
-			KeyFactory kf = KeyFactory.getInstance("EC", "BC");
 			PublicKey key = kf.generatePublic(spec);
 			return (ECPublicKey) key;
-		} catch (NoSuchAlgorithmException e) {
-		} catch (NoSuchProviderException e) {
 		} catch (InvalidKeySpecException e) {
 		} catch (ClassCastException e) {
 		}
 		return null;
 	}
 
+	/**
+	 * Decodes a public key in the format produced by
+	 * {@link #encodeDER(ECPublicKey, boolean)}.
+	 *
+	 * @param encoded the encoded public key
+	 * @return the public key, or null if the encoding is not a valid point
+	 */
+	public static ECPublicKey decodeDER(byte[] encoded) {
+		if (encoded == null) {
+			throw new NullPointerException("Encoded public key may not be null");
+		}
+		try {
+			if (encoded.length == 33 && (encoded[0] == 0x02 || encoded[0] == 0x03)) {
+				BigInteger x = new BigInteger(1, Arrays.copyOfRange(encoded, 1, 33));
+				return getECPublicKey(x, encoded[0] == 0x03);
+			} else if (encoded.length == 65 && encoded[0] == 0x04) {
+				BigInteger x = new BigInteger(1, Arrays.copyOfRange(encoded, 1, 33));
+				BigInteger y = new BigInteger(1, Arrays.copyOfRange(encoded, 33, 65));
+				return getECPublicKey(x, y);
+			}
+		} catch (IllegalArgumentException e) {
+			// Coordinates out of range or not on the curve
+		}
+		return null;
+	}
+
 	public static byte[] encodeDER(ECPublicKey pub, boolean compressed) {
 		byte[] encoded = new byte[compressed ? 33 : 65];
 
@@ -289,28 +446,4 @@ public class Secp256k1 {
 		int integerLength = Math.min(integerBytes.length, len);
 		System.arraycopy(integerBytes, integerBytes.length - integerLength, buf, pos + len - integerLength, integerLength);
 	}
-
-	private static byte[] hexDecode(String hexString) {
-		if ((hexString.length() & 1) != 0) {
-			return null;
-		}
-		byte[] buf = new byte[hexString.length() >> 1];
-		int j = 0;
-		for (int i = 0; i < buf.length; i++) {
-			buf[i] = (byte) ((hexCharToInt(hexString.charAt(j)) << 4) | hexCharToInt(hexString.charAt(j + 1)));
-			j += 2;
-		}
-		return buf;
-	}
-
-	private static int hexCharToInt(char c) {
-		if (c >= '0' && c <= '9') {
-			return c - '0';
-		} else if (c >= 'a' && c <= 'f') {
-			return 10 + c - 'a';
-		} else if (c >= 'A' && c <= 'F') {
-			return 10 + c - 'A';
-		}
-		return -1;
-	}
 }
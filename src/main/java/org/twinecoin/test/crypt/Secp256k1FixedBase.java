@@ -0,0 +1,94 @@
+package org.twinecoin.test.crypt;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Fixed base scalar multiplication for the secp256k1 generator point.<br>
+ * <br>
+ * The scalar is split into 64 windows of 4 bits.  For each window, the
+ * table holds the 16 multiples 0 to 15 of 16^window * G in affine form,
+ * so a multiplication is at most 64 point additions and no doublings.
+ * The table is built once, when the class is initialised.<br>
+ * <br>
+ * The multiplication is not constant time, so it must only be used for
+ * generating test vectors.
+ */
+public class Secp256k1FixedBase {
+
+	private final static int WINDOW_BITS = 4;
+	private final static int WINDOW_SIZE = 1 << WINDOW_BITS;
+	private final static int WINDOWS = 256 / WINDOW_BITS;
+
+	private final static X9ECParameters params = CustomNamedCurves.getByName("secp256k1");
+
+	private final static ECPoint[][] table = buildTable();
+
+	/**
+	 * Gets the curve parameters.
+	 *
+	 * @return the curve parameters
+	 */
+	public static X9ECParameters getParameters() {
+		return params;
+	}
+
+	/**
+	 * Gets the curve.
+	 *
+	 * @return the curve
+	 */
+	public static ECCurve getCurve() {
+		return params.getCurve();
+	}
+
+	/**
+	 * Computes k * G.
+	 *
+	 * @param k the scalar, in the range 0 to 2^256 - 1
+	 * @return the normalized (affine) point, which is the point at infinity
+	 *         if k is a multiple of the order of the curve
+	 */
+	public static ECPoint multiply(BigInteger k) {
+		if (k.signum() < 0 || k.bitLength() > 256) {
+			throw new IllegalArgumentException("Scalar must be a 256 bit unsigned integer");
+		}
+
+		ECPoint result = params.getCurve().getInfinity();
+		for (int i = 0; i < WINDOWS; i++) {
+			int digit = 0;
+			for (int j = WINDOW_BITS - 1; j >= 0; j--) {
+				digit = (digit << 1) | (k.testBit(i * WINDOW_BITS + j) ? 1 : 0);
+			}
+			if (digit != 0) {
+				result = result.add(table[i][digit]);
+			}
+		}
+		return result.normalize();
+	}
+
+	private static ECPoint[][] buildTable() {
+		ECCurve curve = params.getCurve();
+		ECPoint[][] points = new ECPoint[WINDOWS][];
+
+		ECPoint base = params.getG();
+		for (int i = 0; i < WINDOWS; i++) {
+			ECPoint[] row = new ECPoint[WINDOW_SIZE];
+			row[0] = curve.getInfinity();
+			row[1] = base;
+			for (int j = 2; j < WINDOW_SIZE; j++) {
+				row[j] = row[j - 1].add(base);
+			}
+			curve.normalizeAll(row);
+			points[i] = row;
+
+			// 16 * base is the base for the next window
+			base = row[WINDOW_SIZE - 1].add(base).normalize();
+		}
+		return points;
+	}
+}
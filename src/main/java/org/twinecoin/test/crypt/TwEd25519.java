@@ -2,12 +2,11 @@ package org.twinecoin.test.crypt;
 
 import java.io.IOException;
 import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -16,11 +15,31 @@ import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.BEROctetString;
 import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
 import org.bouncycastle.jcajce.interfaces.EdDSAPrivateKey;
+import org.bouncycastle.math.ec.rfc8032.Ed25519;
 import org.bouncycastle.util.encoders.Hex;
 
 public class TwEd25519 {
 
+	public final static int SEED_LENGTH = 32;
+
+	public final static int PUBLIC_KEY_LENGTH = 32;
+
+	/**
+	 * The length of the bit string header, tag and length, of an encoded
+	 * public key
+	 */
+	public final static int PUBLIC_KEY_DER_HEADER_LENGTH = 2;
+
+	/**
+	 * The length of a public key encoded by
+	 * {@link #getPublicKeyDERBytes(byte[])}
+	 */
+	public final static int PUBLIC_KEY_DER_LENGTH = PUBLIC_KEY_DER_HEADER_LENGTH + PUBLIC_KEY_LENGTH;
+
+	public final static int SIGNATURE_LENGTH = 64;
+
 	private final static ASN1Object privateKeyEncodeVersion = new ASN1Integer(1L);
 
 	private final static ASN1ObjectIdentifier curveOID = new ASN1ObjectIdentifier("1.3.101.112");
@@ -43,6 +62,93 @@ public class TwEd25519 {
 		return encoded;
 	}
 
+	/**
+	 * Gets the seed of the key created by {@link #createPrivateKey(byte[])}.<br>
+	 * <br>
+	 * When the first byte of the seed is negative, the DER encoding of the
+	 * seed has a leading zero byte and the key factory uses the first 32
+	 * bytes of the encoding.  The effective seed is then a zero byte followed
+	 * by the first 31 bytes of the seed.  The raw key path applies the same
+	 * mapping, so that both paths create the same keys.
+	 *
+	 * @param seed the 32 byte seed
+	 * @return the effective seed, or null if the seed is not 32 bytes
+	 */
+	private static byte[] getKeySeed(byte[] seed) {
+		if (seed.length != SEED_LENGTH) {
+			return null;
+		}
+		if (seed[0] >= 0) {
+			return seed;
+		}
+		byte[] keySeed = new byte[SEED_LENGTH];
+		System.arraycopy(seed, 0, keySeed, 1, SEED_LENGTH - 1);
+		return keySeed;
+	}
+
+	/**
+	 * Creates a lightweight private key from a seed, without an encoding
+	 * round trip.  The key is the same as the key created by
+	 * {@link #createPrivateKey(byte[])} for the same seed.
+	 *
+	 * @param seed the 32 byte seed
+	 * @return the private key, or null if the seed is not 32 bytes
+	 */
+	public static Ed25519PrivateKeyParameters createRawPrivateKey(byte[] seed) {
+		byte[] keySeed = getKeySeed(seed);
+		if (keySeed == null) {
+			return null;
+		}
+		return new Ed25519PrivateKeyParameters(keySeed, 0);
+	}
+
+	/**
+	 * Gets the 32 byte encoded public key for a lightweight private key.
+	 *
+	 * @param privateKey the private key
+	 * @return the public key
+	 */
+	public static byte[] getRawPublicKey(Ed25519PrivateKeyParameters privateKey) {
+		return privateKey.generatePublicKey().getEncoded();
+	}
+
+	/**
+	 * Signs a message with a lightweight private key.  Passing the public key
+	 * avoids deriving it again for each signature.
+	 *
+	 * @param privateKey the private key
+	 * @param publicKey the 32 byte public key for the private key
+	 * @param message the message
+	 * @return the 64 byte signature
+	 */
+	public static byte[] sign(Ed25519PrivateKeyParameters privateKey, byte[] publicKey, byte[] message) {
+		byte[] signature = new byte[SIGNATURE_LENGTH];
+		Ed25519.sign(privateKey.getEncoded(), 0, publicKey, 0, message, 0, message.length, signature, 0);
+		return signature;
+	}
+
+	/**
+	 * Verifies a signature against a public key in the encoding returned by
+	 * {@link #getPublicKeyDERBytes(byte[])}.  The verification decodes the
+	 * public key and signature and checks the verification equation, so it
+	 * shares no code with the signing path beyond the field arithmetic.
+	 *
+	 * @param publicKeyDER the encoded public key
+	 * @param signature the signature
+	 * @param message the message
+	 * @return true if the encodings have the expected lengths and the
+	 *         signature is valid
+	 */
+	public static boolean verify(byte[] publicKeyDER, byte[] signature, byte[] message) {
+		if (publicKeyDER.length != PUBLIC_KEY_DER_LENGTH || publicKeyDER[0] != 0x03 || publicKeyDER[1] != PUBLIC_KEY_LENGTH) {
+			return false;
+		}
+		if (signature.length != SIGNATURE_LENGTH) {
+			return false;
+		}
+		return Ed25519.verify(signature, 0, publicKeyDER, PUBLIC_KEY_DER_HEADER_LENGTH, message, 0, message.length);
+	}
+
 	public static PrivateKey createPrivateKey(byte[] seed) {
 
 		byte[] derEncoded = derEncode(seed);
@@ -62,12 +168,8 @@ public class TwEd25519 {
 			return null;
 		}
 
-		KeyFactory ed25519KeyFactory;
-		try {
-			ed25519KeyFactory = KeyFactory.getInstance("Ed25519", "BC");
-		} catch (NoSuchAlgorithmException e) {
-			return null;
-		} catch (NoSuchProviderException e) {
+		KeyFactory ed25519KeyFactory = EnginePool.getKeyFactory("Ed25519");
+		if (ed25519KeyFactory == null) {
 			return null;
 		}
 
@@ -129,11 +231,27 @@ public class TwEd25519 {
 			return null;
 		}
 
-		byte[] validEncoding = new byte[34];
-		System.arraycopy(asn1Encoded, keyBitStringStart + 2 + keyBitStringLength - 32, validEncoding, 2, 32);
+		int keyStart = keyBitStringStart + 2 + keyBitStringLength - 32;
+
+		return getPublicKeyDERBytes(Arrays.copyOfRange(asn1Encoded, keyStart, keyStart + 32));
+	}
+
+	/**
+	 * Encodes a 32 byte public key as a bit string.
+	 *
+	 * @param rawPublicKey the 32 byte public key
+	 * @return the 34 byte encoding, or null if the key is not 32 bytes
+	 */
+	public static byte[] getPublicKeyDERBytes(byte[] rawPublicKey) {
+		if (rawPublicKey.length != PUBLIC_KEY_LENGTH) {
+			return null;
+		}
+
+		byte[] validEncoding = new byte[PUBLIC_KEY_DER_LENGTH];
+		System.arraycopy(rawPublicKey, 0, validEncoding, PUBLIC_KEY_DER_HEADER_LENGTH, PUBLIC_KEY_LENGTH);
 
 		validEncoding[0] = 0x03;
-		validEncoding[1] = 0x20;
+		validEncoding[1] = PUBLIC_KEY_LENGTH;
 
 		return validEncoding;
 	}
@@ -0,0 +1,158 @@
+package org.twinecoin.test.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Run options for TwineTest and the vector generators.<br>
+ * <br>
+ * Options are stored as system properties with a "twinetest." prefix.  The
+ * command line option --concurrent=false is equivalent to starting the JVM
+ * with -Dtwinetest.concurrent=false.<br>
+ * <br>
+ * Command line options are checked against {@link #OPTIONS}, so a new
+ * option must be added there as well as documented by the class which
+ * uses it.
+ */
+public class Config {
+
+	public final static String PREFIX = "twinetest.";
+
+	/**
+	 * The names of the options which may be set on the command line
+	 */
+	private final static Set<String> OPTIONS = new HashSet<String>(Arrays.asList(
+		"binary",
+		"cache",
+		"cache.dir",
+		"concurrent",
+		"ed25519.count",
+		"ed25519.seed",
+		"fsync",
+		"hash.count",
+		"hash.large",
+		"hash.seed",
+		"report",
+		"secp256k1.count",
+		"secp256k1.seed",
+		"shard.size",
+		"spool.dir",
+		"threads",
+		"u512.crosscheck",
+		"u512.directed.count",
+		"u512.directed.lengths.count",
+		"u512.divzero.count",
+		"u512.equal.count",
+		"u512.halfwidth.count",
+		"u512.multiple.count",
+		"u512.nearequal.count",
+		"u512.pool",
+		"u512.pool.seed",
+		"u512.pool.size",
+		"u512.random.count",
+		"u512.random.lengths.count",
+		"u512.seed"
+	));
+
+	/**
+	 * Copies command line options into the system properties.<br>
+	 * <br>
+	 * Options are of the form --name=value.  An option without a value,
+	 * --name, is set to true.  No options are set unless all the arguments
+	 * are known options.
+	 *
+	 * @param args the command line arguments
+	 * @return true if all the arguments were valid options
+	 */
+	public static boolean parseArgs(String[] args) {
+		String[] names = new String[args.length];
+		String[] values = new String[args.length];
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--") || arg.length() == 2) {
+				System.err.println("Unknown argument, " + arg);
+				return false;
+			}
+			int split = arg.indexOf('=');
+			if (split == 2) {
+				System.err.println("Unknown argument, " + arg);
+				return false;
+			}
+			names[i] = split < 0 ? arg.substring(2) : arg.substring(2, split);
+			values[i] = split < 0 ? "true" : arg.substring(split + 1);
+			if (!isOption(names[i])) {
+				System.err.println("Unknown option, " + arg);
+				return false;
+			}
+		}
+		for (int i = 0; i < args.length; i++) {
+			System.setProperty(PREFIX + names[i], values[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a name is a known option.
+	 *
+	 * @param name the option name, without the prefix
+	 * @return true if the option is known
+	 */
+	public static boolean isOption(String name) {
+		return OPTIONS.contains(name);
+	}
+
+	public static String getString(String name, String defaultValue) {
+		return System.getProperty(PREFIX + name, defaultValue);
+	}
+
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value.equalsIgnoreCase("true")) {
+			return true;
+		}
+		if (value.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException("Option " + name + " must be true or false, " + value);
+	}
+
+	public static int getInt(String name, int defaultValue) {
+		long value = getLong(name, defaultValue);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Option " + name + " out of range, " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Gets an option which sets a number of vectors or values.
+	 *
+	 * @param name the option name
+	 * @param defaultValue the default count
+	 * @return the count
+	 * @throws IllegalArgumentException if the count is negative
+	 */
+	public static int getCount(String name, int defaultValue) {
+		int count = getInt(name, defaultValue);
+		if (count < 0) {
+			throw new IllegalArgumentException("Option " + name + " must not be negative, " + count);
+		}
+		return count;
+	}
+
+	public static long getLong(String name, long defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.decode(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option " + name + " must be an integer, " + value);
+		}
+	}
+}
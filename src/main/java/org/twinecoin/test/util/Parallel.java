@@ -0,0 +1,125 @@
+package org.twinecoin.test.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join helper for computing per-vector results in parallel.<br>
+ * <br>
+ * Results are always returned in index order, so output built from them is
+ * identical to output built by a serial loop over the same indexes.  The
+ * number of worker threads is set by the "threads" option and defaults to
+ * the number of available processors.  With a single thread, all work is
+ * performed on the calling thread.<br>
+ * <br>
+ * CPU time and allocation on the worker threads are added to the
+ * {@link RunReport} of the calling thread, if it has one.
+ */
+public class Parallel {
+
+	/**
+	 * The target number of tasks per worker thread.  Splitting a range into
+	 * more tasks than threads balances ranges with uneven per-index costs.
+	 */
+	private final static int TASKS_PER_THREAD = 8;
+
+	private static ForkJoinPool pool;
+
+	public static abstract class IndexedTask<T> {
+		/**
+		 * Computes the result for an index.  This method may be called
+		 * concurrently from multiple threads.
+		 *
+		 * @param index the index
+		 * @return the result
+		 */
+		public abstract T compute(int index);
+	}
+
+	public static int getThreads() {
+		int threads = Config.getInt("threads", Runtime.getRuntime().availableProcessors());
+		if (threads < 1) {
+			throw new IllegalArgumentException("Option threads must be at least 1, " + threads);
+		}
+		return threads;
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(getThreads());
+		}
+		return pool;
+	}
+
+	/**
+	 * Computes a task for each index in the range start (inclusive) to
+	 * end (exclusive).
+	 *
+	 * @param start the first index
+	 * @param end the index after the last index
+	 * @param task the task
+	 * @return the results, in index order
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> map(int start, int end, IndexedTask<T> task) {
+		Object[] results = new Object[end - start];
+
+		int threads = getThreads();
+		if (threads == 1 || results.length <= 1) {
+			for (int i = start; i < end; i++) {
+				results[i - start] = task.compute(i);
+			}
+		} else {
+			int grain = Math.max(1, results.length / (threads * TASKS_PER_THREAD));
+			RunReport.Generator report = RunReport.current();
+			getPool().invoke(new RangeAction<T>(task, report, results, start, start, end, grain));
+		}
+
+		return (List<T>) Arrays.asList(results);
+	}
+
+	private static class RangeAction<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final IndexedTask<T> task;
+		private final RunReport.Generator report;
+		private final Object[] results;
+		private final int offset;
+		private final int start;
+		private final int end;
+		private final int grain;
+
+		public RangeAction(IndexedTask<T> task, RunReport.Generator report, Object[] results, int offset, int start, int end, int grain) {
+			this.task = task;
+			this.report = report;
+			this.results = results;
+			this.offset = offset;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= grain) {
+				// Work run on the calling thread is already timed by its report
+				boolean worker = report != null && Thread.currentThread() instanceof ForkJoinWorkerThread;
+				long cpu = worker ? RunReport.getThreadCpuTime() : 0;
+				long allocated = worker ? RunReport.getThreadAllocatedBytes() : 0;
+				for (int i = start; i < end; i++) {
+					results[i - offset] = task.compute(i);
+				}
+				if (worker) {
+					report.addWorker(RunReport.getThreadCpuTime() - cpu, RunReport.getThreadAllocatedBytes() - allocated);
+				}
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new RangeAction<T>(task, report, results, offset, start, mid, grain),
+						new RangeAction<T>(task, report, results, offset, mid, end, grain));
+			}
+		}
+	}
+}
@@ -0,0 +1,437 @@
+package org.twinecoin.test.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records wall time, CPU time and allocation for each generator and each
+ * phase of a generator, and writes them as a JSON report.<br>
+ * <br>
+ * The report for the generator running on a thread is held in a thread
+ * local, so generators mark their phases by calling {@link #phase(String)}
+ * without needing a reference to the report.  Work performed on the
+ * {@link Parallel} worker threads is added to the phase which is active
+ * on the thread which started it.<br>
+ * <br>
+ * The phases are
+ * <ul>
+ * <li>values - drawing the random inputs</li>
+ * <li>compute - computing the expected results</li>
+ * <li>verify - checking the expected results against an independent
+ * verifier</li>
+ * <li>format - formatting the results as header lines</li>
+ * <li>write - writing to the output files</li>
+ * </ul>
+ * Generators where two of these steps are interleaved report them as a
+ * single phase.
+ */
+public class RunReport {
+
+	private final static ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private final static boolean cpuSupported = initCpuSupported();
+
+	private final static boolean allocationSupported = initAllocationSupported();
+
+	private final static ThreadLocal<Generator> localGenerator = new ThreadLocal<Generator>();
+
+	private final static Map<String, Long> startup = new LinkedHashMap<String, Long>();
+
+	private final List<Generator> generators = new ArrayList<Generator>();
+
+	private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	private final long startNanos = System.nanoTime();
+
+	private long endNanos;
+
+	/**
+	 * Adds a generator to the report.  Generators are reported in the order
+	 * in which they are added.
+	 *
+	 * @param name the generator name
+	 * @return the generator report
+	 */
+	public synchronized Generator addGenerator(String name) {
+		Generator generator = new Generator(name);
+		generators.add(generator);
+		return generator;
+	}
+
+	/**
+	 * Sets a counter for the whole run, such as the engine pool hits.
+	 * Counters are reported in the order in which they are first set.
+	 *
+	 * @param name the counter name
+	 * @param value the value
+	 */
+	public synchronized void setCounter(String name, long value) {
+		counters.put(name, value);
+	}
+
+	/**
+	 * Marks the end of the run.
+	 */
+	public synchronized void finish() {
+		endNanos = System.nanoTime();
+	}
+
+	/**
+	 * Sets the generator report for the current thread.
+	 *
+	 * @param generator the generator report, or null to clear it
+	 */
+	public static void setCurrent(Generator generator) {
+		if (generator == null) {
+			localGenerator.remove();
+		} else {
+			localGenerator.set(generator);
+		}
+	}
+
+	/**
+	 * Gets the generator report for the current thread.
+	 *
+	 * @return the generator report, or null if there is none
+	 */
+	public static Generator current() {
+		return localGenerator.get();
+	}
+
+	/**
+	 * Starts a phase for the generator running on the current thread, ending
+	 * the previous phase.  Phases with the same name are accumulated.
+	 *
+	 * @param name the phase name
+	 */
+	public static void phase(String name) {
+		Generator generator = localGenerator.get();
+		if (generator != null) {
+			generator.begin(name);
+		}
+	}
+
+	/**
+	 * Adds to the number of vectors produced by the generator running on the
+	 * current thread.
+	 *
+	 * @param count the number of vectors
+	 */
+	public static void addVectors(long count) {
+		Generator generator = localGenerator.get();
+		if (generator != null) {
+			generator.addVectors(count);
+		}
+	}
+
+	/**
+	 * Records the wall time of a startup step, such as loading the provider.
+	 * Startup steps are recorded before the report is created, so they are
+	 * held statically and included in every report.
+	 *
+	 * @param name the step name
+	 * @param wallNanos the wall time in nanoseconds
+	 */
+	public static void addStartup(String name, long wallNanos) {
+		synchronized (startup) {
+			Long previous = startup.get(name);
+			startup.put(name, previous == null ? wallNanos : previous + wallNanos);
+		}
+	}
+
+	/**
+	 * Gets the CPU time of the current thread.
+	 *
+	 * @return the CPU time in nanoseconds, or 0 if not supported
+	 */
+	static long getThreadCpuTime() {
+		return cpuSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 *
+	 * @return the number of bytes, or 0 if not supported
+	 */
+	static long getThreadAllocatedBytes() {
+		if (!allocationSupported) {
+			return 0;
+		}
+		return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 *
+	 * @param file the output file
+	 * @throws IOException if the file could not be written
+	 */
+	public synchronized void write(File file) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"threads\": ").append(Parallel.getThreads()).append(",\n");
+		sb.append("  \"concurrent\": ").append(Config.getBoolean("concurrent", true)).append(",\n");
+		sb.append("  \"cpu_time_supported\": ").append(cpuSupported).append(",\n");
+		sb.append("  \"allocation_supported\": ").append(allocationSupported).append(",\n");
+		sb.append("  \"wall_ns\": ").append((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos).append(",\n");
+		for (Map.Entry<String, Long> entry : counters.entrySet()) {
+			sb.append("  ");
+			appendString(sb, entry.getKey());
+			sb.append(": ").append(entry.getValue()).append(",\n");
+		}
+		sb.append("  \"startup\": [");
+		synchronized (startup) {
+			boolean first = true;
+			for (Map.Entry<String, Long> entry : startup.entrySet()) {
+				sb.append(first ? "\n" : ",\n");
+				first = false;
+				sb.append("    {\"name\": ");
+				appendString(sb, entry.getKey());
+				sb.append(", \"wall_ns\": ").append(entry.getValue()).append("}");
+			}
+			sb.append(first ? "],\n" : "\n  ],\n");
+		}
+		sb.append("  \"generators\": [");
+		for (int i = 0; i < generators.size(); i++) {
+			sb.append(i == 0 ? "\n" : ",\n");
+			generators.get(i).append(sb);
+		}
+		sb.append("\n  ]\n");
+		sb.append("}\n");
+
+		Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static boolean initCpuSupported() {
+		try {
+			if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+				return false;
+			}
+			if (!threadBean.isThreadCpuTimeEnabled()) {
+				threadBean.setThreadCpuTimeEnabled(true);
+			}
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		} catch (SecurityException e) {
+			return false;
+		}
+	}
+
+	private static boolean initAllocationSupported() {
+		try {
+			if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+				return false;
+			}
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+			if (!bean.isThreadAllocatedMemorySupported()) {
+				return false;
+			}
+			if (!bean.isThreadAllocatedMemoryEnabled()) {
+				bean.setThreadAllocatedMemoryEnabled(true);
+			}
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		} catch (SecurityException e) {
+			return false;
+		} catch (LinkageError e) {
+			// The com.sun.management extension is not available
+			return false;
+		}
+	}
+
+	private static void appendString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20 || c > 0x7E) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private static void appendRate(StringBuilder sb, long count, long nanos) {
+		if (nanos <= 0) {
+			sb.append("null");
+		} else {
+			sb.append(String.format(Locale.ROOT, "%.1f", count * 1e9 / nanos));
+		}
+	}
+
+	private static class Phase {
+		private long wallNanos;
+		private long cpuNanos;
+		private long allocatedBytes;
+	}
+
+	/**
+	 * The report for a single generator.
+	 */
+	public static class Generator {
+		private final String name;
+		private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+		private final Phase total = new Phase();
+
+		private Phase phase;
+		private long phaseWall;
+		private long phaseCpu;
+		private long phaseAllocated;
+
+		private long startWall;
+		private long startCpu;
+		private long startAllocated;
+
+		private long vectors;
+		private long bytesWritten;
+		private long writeBytes;
+		private long writeNanos;
+		private boolean cached;
+
+		private Generator(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Starts timing the generator on the current thread.
+		 */
+		public synchronized void start() {
+			startWall = System.nanoTime();
+			startCpu = getThreadCpuTime();
+			startAllocated = getThreadAllocatedBytes();
+		}
+
+		/**
+		 * Stops timing the generator, ending the current phase.  This must be
+		 * called on the thread which called {@link #start()}.
+		 */
+		public synchronized void finish() {
+			end();
+			total.wallNanos += System.nanoTime() - startWall;
+			total.cpuNanos += getThreadCpuTime() - startCpu;
+			total.allocatedBytes += getThreadAllocatedBytes() - startAllocated;
+		}
+
+		/**
+		 * Starts a phase on the current thread, ending the previous phase.
+		 *
+		 * @param name the phase name
+		 */
+		public synchronized void begin(String name) {
+			end();
+			phase = phases.get(name);
+			if (phase == null) {
+				phase = new Phase();
+				phases.put(name, phase);
+			}
+			phaseWall = System.nanoTime();
+			phaseCpu = getThreadCpuTime();
+			phaseAllocated = getThreadAllocatedBytes();
+		}
+
+		/**
+		 * Ends the current phase.
+		 */
+		public synchronized void end() {
+			if (phase != null) {
+				phase.wallNanos += System.nanoTime() - phaseWall;
+				phase.cpuNanos += getThreadCpuTime() - phaseCpu;
+				phase.allocatedBytes += getThreadAllocatedBytes() - phaseAllocated;
+				phase = null;
+			}
+		}
+
+		/**
+		 * Adds CPU time and allocation from a worker thread to the current
+		 * phase and to the generator total.
+		 *
+		 * @param cpuNanos the CPU time in nanoseconds
+		 * @param allocatedBytes the number of bytes allocated
+		 */
+		public synchronized void addWorker(long cpuNanos, long allocatedBytes) {
+			if (phase != null) {
+				phase.cpuNanos += cpuNanos;
+				phase.allocatedBytes += allocatedBytes;
+			}
+			total.cpuNanos += cpuNanos;
+			total.allocatedBytes += allocatedBytes;
+		}
+
+		public synchronized void addVectors(long count) {
+			vectors += count;
+		}
+
+		public synchronized void addBytesWritten(long count) {
+			bytesWritten += count;
+		}
+
+		/**
+		 * Adds bytes written to an output channel and the time spent writing
+		 * them, including forcing and renaming the file.
+		 *
+		 * @param bytes the number of bytes
+		 * @param nanos the time in nanoseconds
+		 */
+		public synchronized void addWrite(long bytes, long nanos) {
+			writeBytes += bytes;
+			writeNanos += nanos;
+		}
+
+		public synchronized void setCached(boolean cached) {
+			this.cached = cached;
+		}
+
+		private synchronized void append(StringBuilder sb) {
+			sb.append("    {\n");
+			sb.append("      \"name\": ");
+			appendString(sb, name);
+			sb.append(",\n");
+			sb.append("      \"cached\": ").append(cached).append(",\n");
+			sb.append("      \"vectors\": ").append(vectors).append(",\n");
+			sb.append("      \"bytes_written\": ").append(bytesWritten).append(",\n");
+			sb.append("      \"write_bytes\": ").append(writeBytes).append(",\n");
+			sb.append("      \"write_ns\": ").append(writeNanos).append(",\n");
+			sb.append("      \"write_bytes_per_second\": ");
+			appendRate(sb, writeBytes, writeNanos);
+			sb.append(",\n");
+			appendTimes(sb, total, "      ");
+			sb.append(",\n");
+			sb.append("      \"phases\": [");
+			boolean first = true;
+			for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+				sb.append(first ? "\n" : ",\n");
+				first = false;
+				sb.append("        {\n");
+				sb.append("          \"name\": ");
+				appendString(sb, entry.getKey());
+				sb.append(",\n");
+				appendTimes(sb, entry.getValue(), "          ");
+				sb.append("\n        }");
+			}
+			sb.append("\n      ]\n");
+			sb.append("    }");
+		}
+
+		private void appendTimes(StringBuilder sb, Phase times, String indent) {
+			sb.append(indent).append("\"wall_ns\": ").append(times.wallNanos).append(",\n");
+			sb.append(indent).append("\"cpu_ns\": ").append(times.cpuNanos).append(",\n");
+			sb.append(indent).append("\"allocated_bytes\": ").append(times.allocatedBytes).append(",\n");
+			sb.append(indent).append("\"vectors_per_second\": ");
+			appendRate(sb, vectors, times.wallNanos);
+		}
+	}
+}
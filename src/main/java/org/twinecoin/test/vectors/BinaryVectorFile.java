@@ -0,0 +1,410 @@
+package org.twinecoin.test.vectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writer for memory mappable binary vector files.<br>
+ * <br>
+ * All values are little endian.  The file starts with a 64 byte header<br>
+ * <pre>
+ * typedef struct _tw_vector_file_header {
+ *   char magic[8];             // "TWVECBIN"
+ *   tw_u32 version;            // 2
+ *   tw_u32 header_size;        // 64
+ *   tw_u32 table_count;        // number of directory entries
+ *   tw_u32 reserved;           // 0
+ *   tw_u64 directory_offset;   // file offset of the table directory
+ *   tw_u64 file_size;          // total file size
+ *   tw_u8 padding[24];         // 0
+ * } tw_vector_file_header;
+ * </pre>
+ * The table directory is at the end of the file and has one 64 byte entry
+ * per table<br>
+ * <pre>
+ * typedef struct _tw_vector_file_table {
+ *   char name[32];             // table name, NUL padded
+ *   tw_u32 kind;               // 1 = fixed width records, 2 = blobs
+ *   tw_u32 record_size;        // bytes per record, 16 for blob tables
+ *   tw_u64 count;              // number of records or blobs
+ *   tw_u64 data_offset;        // file offset of the first record
+ *   tw_u64 blob_offset;        // file offset of the blob data, 0 for records
+ * } tw_vector_file_table;
+ * </pre>
+ * The records of a fixed width table are stored contiguously from
+ * data_offset.  For a blob table, data_offset points to count index
+ * entries of {tw_u64 offset; tw_u64 length;}, where offset is relative to
+ * blob_offset.  Record tables, blob data and index tables start on 64 byte
+ * boundaries.<br>
+ * <br>
+ * A tw_u512 is stored as eight 64-bit words, least significant first.
+ * Records match the natural layout of the C vector structs on LP64
+ * targets.  Each field is aligned to its size, so a 32-bit field is
+ * followed by 4 bytes of padding unless the next field is also 32-bit.
+ * The format header declares a struct for each record table and fails to
+ * compile if the struct size differs from the record size.<br>
+ * <br>
+ * The index entries of a blob table are held in a {@link SpoolFile} until
+ * the table is ended, so the heap used does not grow with the number of
+ * blobs.<br>
+ * <br>
+ * The first write error is recorded and later writes are discarded.  The
+ * error is thrown by {@link #finish()}.
+ */
+public class BinaryVectorFile {
+
+	public final static int VERSION = 2;
+
+	public final static int KIND_RECORDS = 1;
+	public final static int KIND_BLOBS = 2;
+
+	private final static byte[] MAGIC = "TWVECBIN".getBytes(StandardCharsets.US_ASCII);
+
+	private final static int HEADER_SIZE = 64;
+	private final static int DIRECTORY_ENTRY_SIZE = 64;
+	private final static int NAME_SIZE = 32;
+	private final static int ALIGNMENT = 64;
+	private final static int BUFFER_SIZE = 1 << 18;
+
+	private final OutputChannel channel;
+	private final ByteBuffer buffer;
+
+	private final List<Table> tables = new ArrayList<Table>();
+
+	private Table current;
+	private long position;
+	private SpoolFile blobIndex;
+	private final ByteBuffer blobEntry = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+	private IOException exception;
+
+	private BinaryVectorFile(OutputChannel channel) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Creates a binary vector file.  Space for the header is reserved and
+	 * the header is written by {@link #finish()}.
+	 *
+	 * @param dir the output directory
+	 * @param filename the filename
+	 * @return the file writer
+	 * @throws IOException if the file could not be created
+	 */
+	public static BinaryVectorFile create(File dir, String filename) throws IOException {
+		BinaryVectorFile binary = new BinaryVectorFile(OutputChannel.create(dir, filename));
+		binary.pad(HEADER_SIZE);
+		return binary;
+	}
+
+	public File getFile() {
+		return channel.getFile();
+	}
+
+	/**
+	 * Starts a table of fixed width records.
+	 *
+	 * @param name the table name, at most 31 ASCII chars
+	 * @param recordSize the size of each record in bytes
+	 */
+	public void beginRecords(String name, int recordSize) {
+		beginTable(name, KIND_RECORDS, recordSize);
+		align();
+		current.dataOffset = position;
+	}
+
+	/**
+	 * Writes one or more records to the current record table.  The remaining
+	 * bytes in the buffer must be a whole number of records.
+	 *
+	 * @param records the records
+	 */
+	public void writeRecords(ByteBuffer records) {
+		if (current == null || current.kind != KIND_RECORDS) {
+			throw new IllegalStateException("No record table in progress");
+		}
+		int length = records.remaining();
+		if ((length % current.recordSize) != 0) {
+			throw new IllegalArgumentException("Record data is not a whole number of records, " + length);
+		}
+		current.count += length / current.recordSize;
+		write(records);
+	}
+
+	/**
+	 * Starts a table of variable length blobs.
+	 *
+	 * @param name the table name, at most 31 ASCII chars
+	 */
+	public void beginBlobs(String name) {
+		beginTable(name, KIND_BLOBS, 16);
+		align();
+		current.blobOffset = position;
+		blobIndex = new SpoolFile();
+	}
+
+	/**
+	 * Writes a blob to the current blob table.
+	 *
+	 * @param data the blob
+	 */
+	public void writeBlob(byte[] data) {
+		if (current == null || current.kind != KIND_BLOBS) {
+			throw new IllegalStateException("No blob table in progress");
+		}
+		blobEntry.clear();
+		blobEntry.putLong(position - current.blobOffset);
+		blobEntry.putLong(data.length);
+		blobEntry.flip();
+		blobIndex.write(blobEntry);
+		current.count++;
+		write(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Ends the current table.
+	 */
+	public void endTable() {
+		if (current == null) {
+			throw new IllegalStateException("No table in progress");
+		}
+		if (current.kind == KIND_BLOBS) {
+			align();
+			current.dataOffset = position;
+			ByteBuffer index = ByteBuffer.allocate(4096);
+			for (long i = 0; i < blobIndex.size(); i += index.capacity()) {
+				index.clear();
+				index.limit((int) Math.min(index.capacity(), blobIndex.size() - i));
+				blobIndex.read(i, index);
+				index.flip();
+				write(index);
+			}
+			blobIndex.close();
+			blobIndex = null;
+		}
+		current = null;
+	}
+
+	/**
+	 * Writes the table directory and file header and closes the file.
+	 *
+	 * @throws IOException if any part of the file could not be written
+	 */
+	public void finish() throws IOException {
+		if (current != null) {
+			throw new IllegalStateException("Table " + current.name + " has not been ended");
+		}
+		align();
+		long directoryOffset = position;
+
+		for (Table table : tables) {
+			ByteBuffer entry = ByteBuffer.allocate(DIRECTORY_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			byte[] name = table.name.getBytes(StandardCharsets.US_ASCII);
+			entry.put(name);
+			entry.position(NAME_SIZE);
+			entry.putInt(table.kind);
+			entry.putInt(table.recordSize);
+			entry.putLong(table.count);
+			entry.putLong(table.dataOffset);
+			entry.putLong(table.blobOffset);
+			entry.flip();
+			write(entry);
+		}
+		flush();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(HEADER_SIZE);
+		header.putInt(tables.size());
+		header.putInt(0);
+		header.putLong(directoryOffset);
+		header.putLong(position);
+		header.clear();
+
+		if (exception == null) {
+			try {
+				channel.write(header, 0);
+				channel.commit();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+
+		close();
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Closes the file.  If the directory and header have not been written,
+	 * the file is discarded.
+	 */
+	public void close() {
+		if (blobIndex != null) {
+			blobIndex.close();
+			blobIndex = null;
+		}
+		channel.abort();
+	}
+
+	/**
+	 * Generates C definitions for the file header, the table directory and
+	 * the records of the fixed width tables.
+	 *
+	 * @param sink the sink to receive the lines
+	 */
+	public static void generateFormatHeader(VectorSink sink) {
+		sink.add("#include \"../../src/math/src/tw_uint.h\"");
+		sink.add("");
+		sink.add("#define TW_VECTOR_FILE_MAGIC \"TWVECBIN\"");
+		sink.add("#define TW_VECTOR_FILE_VERSION " + VERSION);
+		sink.add("#define TW_VECTOR_FILE_RECORDS " + KIND_RECORDS);
+		sink.add("#define TW_VECTOR_FILE_BLOBS " + KIND_BLOBS);
+		sink.add("");
+		sink.add("// Fails to compile if sizeof(type) is not size");
+		sink.add("#define TW_VECTOR_FILE_CHECK_SIZE(type, size) \\");
+		sink.add("  typedef char type##_size_check[(sizeof(type) == (size)) ? 1 : -1]");
+		sink.add("");
+		sink.add("typedef struct _tw_vector_file_header {");
+		sink.add("  char magic[8];             // \"TWVECBIN\"");
+		sink.add("  tw_u32 version;            // TW_VECTOR_FILE_VERSION");
+		sink.add("  tw_u32 header_size;        // sizeof(tw_vector_file_header)");
+		sink.add("  tw_u32 table_count;        // number of directory entries");
+		sink.add("  tw_u32 reserved;");
+		sink.add("  tw_u64 directory_offset;   // file offset of the table directory");
+		sink.add("  tw_u64 file_size;          // total file size");
+		sink.add("  tw_u8 padding[24];");
+		sink.add("} tw_vector_file_header;");
+		sink.add("");
+		sink.add("TW_VECTOR_FILE_CHECK_SIZE(tw_vector_file_header, " + HEADER_SIZE + ");");
+		sink.add("");
+		sink.add("typedef struct _tw_vector_file_table {");
+		sink.add("  char name[32];             // table name, NUL padded");
+		sink.add("  tw_u32 kind;               // TW_VECTOR_FILE_RECORDS or TW_VECTOR_FILE_BLOBS");
+		sink.add("  tw_u32 record_size;        // bytes per record, 16 for blob tables");
+		sink.add("  tw_u64 count;              // number of records or blobs");
+		sink.add("  tw_u64 data_offset;        // file offset of the records or blob index");
+		sink.add("  tw_u64 blob_offset;        // file offset of the blob data, 0 for records");
+		sink.add("} tw_vector_file_table;");
+		sink.add("");
+		sink.add("TW_VECTOR_FILE_CHECK_SIZE(tw_vector_file_table, " + DIRECTORY_ENTRY_SIZE + ");");
+		sink.add("");
+		sink.add("typedef struct _tw_vector_file_blob {");
+		sink.add("  tw_u64 offset;             // offset relative to blob_offset");
+		sink.add("  tw_u64 length;             // length in bytes");
+		sink.add("} tw_vector_file_blob;");
+		sink.add("");
+		sink.add("TW_VECTOR_FILE_CHECK_SIZE(tw_vector_file_blob, 16);");
+		sink.add("");
+		U512TestVectors.generateRecordStructs(sink);
+	}
+
+	/**
+	 * Stores a U512 as eight little endian 64-bit words.
+	 */
+	public static void putU512(ByteBuffer buf, U512 value) {
+		for (int i = 0; i < U512.WORDS; i++) {
+			buf.putLong(value.words[i]);
+		}
+	}
+
+	/**
+	 * Stores the low 512 bits of a value as eight little endian 64-bit words.
+	 * Negative values are stored in two's complement.
+	 */
+	public static void putU512(ByteBuffer buf, BigInteger value) {
+		long[] words = new long[U512.WORDS];
+		Convert.bigIntegerToWords(value, words);
+		for (int i = 0; i < U512.WORDS; i++) {
+			buf.putLong(words[i]);
+		}
+	}
+
+	/**
+	 * Stores a 32-bit value followed by 4 bytes of padding.
+	 */
+	public static void putPaddedInt(ByteBuffer buf, int value) {
+		buf.putInt(value);
+		buf.putInt(0);
+	}
+
+	private void beginTable(String name, int kind, int recordSize) {
+		if (current != null) {
+			throw new IllegalStateException("Table " + current.name + " has not been ended");
+		}
+		if (name.length() >= NAME_SIZE) {
+			throw new IllegalArgumentException("Table name too long, " + name);
+		}
+		current = new Table(name, kind, recordSize);
+		tables.add(current);
+	}
+
+	private void align() {
+		int padding = (int) ((ALIGNMENT - (position % ALIGNMENT)) % ALIGNMENT);
+		pad(padding);
+	}
+
+	private void pad(int length) {
+		write(ByteBuffer.allocate(length));
+	}
+
+	private void write(ByteBuffer data) {
+		position += data.remaining();
+		if (exception != null) {
+			return;
+		}
+		while (data.hasRemaining()) {
+			if (!buffer.hasRemaining()) {
+				flush();
+				if (exception != null) {
+					return;
+				}
+			}
+			if (data.remaining() <= buffer.remaining()) {
+				buffer.put(data);
+			} else {
+				ByteBuffer slice = data.duplicate();
+				slice.limit(slice.position() + buffer.remaining());
+				buffer.put(slice);
+				data.position(slice.position());
+			}
+		}
+	}
+
+	private void flush() {
+		buffer.flip();
+		try {
+			channel.write(buffer);
+		} catch (IOException e) {
+			if (exception == null) {
+				exception = e;
+			}
+		}
+		buffer.clear();
+	}
+
+	private static class Table {
+		private final String name;
+		private final int kind;
+		private final int recordSize;
+		private long count;
+		private long dataOffset;
+		private long blobOffset;
+
+		public Table(String name, int kind, int recordSize) {
+			this.name = name;
+			this.kind = kind;
+			this.recordSize = recordSize;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.twinecoin.test.vectors;
+
+import java.util.Random;
+
+/**
+ * Random source which produces exactly the same sequence as
+ * java.util.Random, but whose internal state can be read and restored.<br>
+ * <br>
+ * This allows a position in a random sequence to be recorded and the
+ * sequence to be replayed from that position later.  Unlike
+ * java.util.Random, instances are not thread safe.
+ */
+public class CheckpointRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+
+	private final static long MULTIPLIER = 0x5DEECE66DL;
+	private final static long ADDEND = 0xBL;
+	private final static long MASK = (1L << 48) - 1;
+
+	private long state;
+
+	public CheckpointRandom(long seed) {
+		super(seed);
+	}
+
+	/**
+	 * Creates a random source which continues from a recorded state.
+	 *
+	 * @param state the state, as returned by {@link #getState()}
+	 * @return the random source
+	 */
+	public static CheckpointRandom fromState(long state) {
+		CheckpointRandom r = new CheckpointRandom(0);
+		r.state = state & MASK;
+		return r;
+	}
+
+	/**
+	 * Creates a random source for a substream of a seed.  Each index gives
+	 * an independent sequence, so values can be drawn for an index without
+	 * drawing the values for the earlier indexes.
+	 *
+	 * @param seed the seed
+	 * @param index the substream index
+	 * @return the random source
+	 */
+	public static CheckpointRandom substream(long seed, long index) {
+		return new CheckpointRandom(mix(seed + index * 0x9E3779B97F4A7C15L));
+	}
+
+	public long getState() {
+		return state;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		state = (seed ^ MULTIPLIER) & MASK;
+		super.setSeed(seed);
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * Mixes the bits of a substream seed (SplitMix64 finalizer), so that
+	 * adjacent indexes give unrelated seeds.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
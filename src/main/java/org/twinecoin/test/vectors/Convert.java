@@ -2,20 +2,29 @@ package org.twinecoin.test.vectors;
 
 import java.math.BigInteger;
 
+import org.twinecoin.test.crypt.HexCodec;
+
 public class Convert {
-	private static char[] hexChars = new char[] {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
-	private static String[] hexBytes;
+	/**
+	 * The length of a tw_u512 initializer, {0x...ULL, ...}
+	 */
+	public final static int U512_CHARS = 1 + 8 * 21 + 7 * 2 + 1;
 
-	static {
-		hexBytes = new String[256];
-		for (int i = 0; i < 256; i++) {
-			hexBytes[i] = new String(new char[] {hexChars[i >> 4], hexChars[i & 0xF]});
+	private final static ThreadLocal<char[]> localU512Chars = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[U512_CHARS];
 		}
-	}
+	};
+
+	private final static ThreadLocal<long[]> localU512Words = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[8];
+		}
+	};
 
 	public static String getHex(int b) {
-		return hexBytes[b & 0xFF];
+		return HexCodec.getHex(b);
 	}
 
 	public static String bigIntegerToU512Strict(BigInteger value, boolean strict) {
@@ -25,22 +34,95 @@ public class Convert {
 		return bigIntegerToU512(value);
 	}
 
+	/**
+	 * Formats the low 512 bits of a value as a tw_u512 initializer.
+	 * Negative values are formatted in two's complement.
+	 *
+	 * @param value the value
+	 * @return the initializer, {0x...ULL, ...}, least significant word first
+	 */
 	public static String bigIntegerToU512(BigInteger value) {
-		BigInteger mask = BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE);
+		char[] buf = localU512Chars.get();
+		writeU512(value, buf, 0);
+		return new String(buf, 0, U512_CHARS);
+	}
+
+	/**
+	 * Formats a U512 as a tw_u512 initializer.
+	 *
+	 * @param value the value
+	 * @return the initializer, {0x...ULL, ...}, least significant word first
+	 */
+	public static String u512ToString(U512 value) {
+		char[] buf = localU512Chars.get();
+		writeU512(value.words, buf, 0);
+		return new String(buf, 0, U512_CHARS);
+	}
+
+	/**
+	 * Writes the tw_u512 initializer for the low 512 bits of a value into a
+	 * buffer.  The buffer must have space for {@link #U512_CHARS} chars.
+	 *
+	 * @param value the value
+	 * @param buf the buffer
+	 * @param pos the position of the first char
+	 * @return the position after the last char
+	 */
+	public static int writeU512(BigInteger value, char[] buf, int pos) {
+		long[] words = localU512Words.get();
+		bigIntegerToWords(value, words);
+		return writeU512(words, buf, pos);
+	}
 
-		StringBuilder buf = new StringBuilder();
-		buf.append("{");
-		for (int i = 0; i < 512; i += 64) {
+	/**
+	 * Writes the tw_u512 initializer for eight 64-bit words into a buffer.
+	 * The buffer must have space for {@link #U512_CHARS} chars.
+	 *
+	 * @param words the words, least significant first
+	 * @param buf the buffer
+	 * @param pos the position of the first char
+	 * @return the position after the last char
+	 */
+	public static int writeU512(long[] words, char[] buf, int pos) {
+		buf[pos++] = '{';
+		for (int i = 0; i < 8; i++) {
 			if (i > 0) {
-				buf.append(", ");
+				buf[pos++] = ',';
+				buf[pos++] = ' ';
 			}
-			long halfWord = value.shiftRight(i + 32).and(mask).longValue();
-			buf.append(String.format("0x%08x", halfWord));
-			halfWord = value.shiftRight(i).and(mask).longValue();
-			buf.append(String.format("%08xULL", halfWord));
+			buf[pos++] = '0';
+			buf[pos++] = 'x';
+			pos = HexCodec.encodeLong(words[i], buf, pos);
+			buf[pos++] = 'U';
+			buf[pos++] = 'L';
+			buf[pos++] = 'L';
+		}
+		buf[pos++] = '}';
+		return pos;
+	}
+
+	/**
+	 * Extracts the low 512 bits of a value as eight 64-bit words, in a
+	 * single pass over the two's complement encoding of the value.
+	 *
+	 * @param value the value
+	 * @param words the array to hold the words, least significant first
+	 */
+	public static void bigIntegerToWords(BigInteger value, long[] words) {
+		byte[] bytes = value.toByteArray();
+		long fill = value.signum() < 0 ? -1L : 0L;
+		int j = bytes.length - 1;
+		for (int i = 0; i < 8; i++) {
+			long word = fill;
+			for (int shift = 0; shift < 64; shift += 8) {
+				if (j < 0) {
+					break;
+				}
+				word &= ~(0xFFL << shift);
+				word |= (bytes[j--] & 0xFFL) << shift;
+			}
+			words[i] = word;
 		}
-		buf.append("}");
-		return buf.toString();
 	}
 
 	public static BigInteger LEBytesToBigInteger(byte[] message) {
@@ -52,8 +134,25 @@ public class Convert {
 		return new BigInteger(bigEndian);
 	}
 
+	/**
+	 * Formats the first 64 bytes of a little endian byte array as a tw_u512
+	 * initializer.  Missing bytes are treated as zero.
+	 *
+	 * @param message the little endian bytes
+	 * @return the initializer
+	 */
 	public static String LEBytesToU512(byte[] message) {
-		return bigIntegerToU512(LEBytesToBigInteger(message));
+		long[] words = localU512Words.get();
+		int length = Math.min(message.length, 64);
+		for (int i = 0; i < 8; i++) {
+			words[i] = 0;
+		}
+		for (int i = 0; i < length; i++) {
+			words[i >> 3] |= (message[i] & 0xFFL) << ((i & 7) << 3);
+		}
+		char[] buf = localU512Chars.get();
+		writeU512(words, buf, 0);
+		return new String(buf, 0, U512_CHARS);
 	}
 
 	public static String toU64FloatString(BigInteger man, int w_exp, int b_exp) {
@@ -101,16 +200,18 @@ public class Convert {
 	}
 
 	public static String bytesToH256(byte[] hash) {
-		StringBuilder buf = new StringBuilder();
-		buf.append("{");
+		char[] buf = new char[2 + 32 * 2 + 31 * 2];
+		int pos = 0;
+		buf[pos++] = '{';
 		for (int i = 0; i < 32; i++) {
 			if (i > 0) {
-				buf.append(", ");
+				buf[pos++] = ',';
+				buf[pos++] = ' ';
 			}
-			buf.append(getHex(hash[i] & 0xFF));
+			pos = HexCodec.encodeByte(hash[i], buf, pos);
 		}
-		buf.append("}");
-		return buf.toString();
+		buf[pos++] = '}';
+		return new String(buf, 0, pos);
 	}
 
 	public static String bytesToU8(boolean forceHex, byte[] ... messages) {
@@ -130,21 +231,20 @@ public class Convert {
 				}
 			}
 		}
-		StringBuilder sb = new StringBuilder(length * 4 + 2);
-		sb.append('"');
+		char[] buf = new char[(hasInvalid ? length * 4 : length) + 2];
+		int pos = 0;
+		buf[pos++] = '"';
 		for (byte[] message : messages) {
-			for (int i = 0; i < message.length; i++) {
-				int b = message[i] & 0xFF;
-				if (hasInvalid) {
-					sb.append("\\x");
-					sb.append(getHex(b));
-				} else {
-					sb.append((char) b);
+			if (hasInvalid) {
+				pos = HexCodec.encodeEscaped(message, 0, message.length, buf, pos);
+			} else {
+				for (int i = 0; i < message.length; i++) {
+					buf[pos++] = (char) (message[i] & 0xFF);
 				}
 			}
 		}
-		sb.append('"');
-		return sb.toString();
+		buf[pos++] = '"';
+		return new String(buf, 0, pos);
 	}
 
 	public static BigInteger asn1toS(byte[] asn1) {
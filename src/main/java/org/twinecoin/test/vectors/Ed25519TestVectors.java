@@ -1,46 +1,99 @@
 package org.twinecoin.test.vectors;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.security.Signature;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
 import org.twinecoin.test.crypt.TwEd25519;
+import org.twinecoin.test.util.Config;
+import org.twinecoin.test.util.Parallel;
+import org.twinecoin.test.util.RunReport;
 
 /**
- * Class to generate test vectors for the tw_sha256 class.<br>
+ * Class to generate test vectors for Ed25519 signatures.<br>
  * <br>
  * This ensures that the test vectors are generated by a separate
- * implementation.
+ * implementation.<br>
+ * <br>
+ * The number of random messages is set by the "ed25519.count" option and
+ * the seed by the "ed25519.seed" option.  Messages are signed and verified
+ * a block at a time, and the vectors are held in spool files until every
+ * block is complete, so the heap used does not depend on the number of
+ * messages.
  */
 public class Ed25519TestVectors {
 
-	public static List<String> generateVectors() {
-		Random r = getRandom();
+	/**
+	 * The generator version, which must be incremented when a change alters
+	 * the generated vectors.
+	 */
+	public final static int VERSION = 1;
+
+	public final static long SEED = 0x280e788cff6ec2bbL;
+
+	/**
+	 * The default number of random messages
+	 */
+	private final static int DEFAULT_COUNT = 100;
+
+	/**
+	 * The number of messages signed in parallel before their vectors are
+	 * spooled
+	 */
+	private final static int BLOCK_SIZE = 256;
+
+	/**
+	 * The lengths of an Ed25519 signature and of the public key in the
+	 * encoding returned by TwEd25519.getPublicKeyDERBytes
+	 */
+	private final static int SIGNATURE_LENGTH = TwEd25519.SIGNATURE_LENGTH;
+	private final static int PUBLIC_KEY_LENGTH = TwEd25519.PUBLIC_KEY_DER_LENGTH;
 
-		List<String> lines = new ArrayList<String>();
+	public static void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+		CheckpointRandom r = getRandom();
 
-		lines.addAll(generateEd25519Vectors(r));
+		generateEd25519Vectors(sink, binary, r, getCount());
+	}
 
-		return lines;
+	/**
+	 * Gets the number of random messages, set by the "ed25519.count" option.
+	 */
+	public static int getCount() {
+		return Config.getCount("ed25519.count", DEFAULT_COUNT);
 	}
 
-	public static Random getRandom() {
-		Random r = new Random();
+	/**
+	 * Gets the seed, set by the "ed25519.seed" option.
+	 */
+	public static long getSeed() {
+		return Config.getLong("ed25519.seed", SEED);
+	}
 
+	public static CheckpointRandom getRandom() {
 		// Seed random so that results are consistent
-		r.setSeed(0x280e788cff6ec2bbL);
-		return r;
+		return new CheckpointRandom(getSeed());
 	}
 
-	public static byte[][] getMessages(Random r) {
-		List<byte[]> messages = new ArrayList<byte[]>();
+	/**
+	 * Gets the parameters which determine the generated vectors, for use
+	 * in output fingerprints.
+	 */
+	public static Map<String, String> getParameters() {
+		Map<String, String> parameters = new TreeMap<String, String>();
+		parameters.put("version", Integer.toString(VERSION));
+		parameters.put("seed", Long.toHexString(getSeed()));
+		parameters.put("count", Integer.toString(getCount()));
+		return parameters;
+	}
 
+	public static byte[][] getFixedMessages() {
 		List<String> messageStrings = new ArrayList<String>();
 
 		messageStrings.add("");
@@ -49,166 +102,325 @@ public class Ed25519TestVectors {
 		messageStrings.add("abc");
 		messageStrings.add("This is a test message");
 
-		for (String string : messageStrings) {
-			messages.add(string.getBytes(StandardCharsets.US_ASCII));
+		byte[][] messages = new byte[messageStrings.size()][];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = messageStrings.get(i).getBytes(StandardCharsets.US_ASCII);
 		}
 
-		for (int i = 0; i < 100; i++) {
-			int length = r.nextInt(512);
-			byte[] message = new byte[length];
-			r.nextBytes(message);
-			messages.add(message);
-		}
+		return messages;
+	}
 
-		return messages.toArray(new byte[0][]);
+	public static byte[] getRandomMessage(Random r) {
+		int length = r.nextInt(512);
+		byte[] message = new byte[length];
+		r.nextBytes(message);
+		return message;
 	}
 
-	public static List<String> generateEd25519Vectors(Random r) {
-		List<String> lines = new ArrayList<String>();
+	/**
+	 * Generates the Ed25519 vectors for the fixed messages followed by count
+	 * random messages.  If the binary file is not null, the messages,
+	 * signatures, validity flags and public keys are also written to it.<br>
+	 * <br>
+	 * The random values for each message are drawn in the same order as a
+	 * serial loop over the messages would draw them.  All the messages are
+	 * drawn before the values for the first message, so the messages are
+	 * drawn from a second random source, which is started from the state
+	 * before the messages.  The keys are then created and the messages
+	 * signed in parallel, so the output does not depend on the number of
+	 * threads.
+	 */
+	public static void generateEd25519Vectors(VectorSink sink, BinaryVectorFile binary, CheckpointRandom r) {
+		generateEd25519Vectors(sink, binary, r, DEFAULT_COUNT);
+	}
 
-		List<byte[]> messages = new ArrayList<byte[]>();
-		List<byte[]> signatures = new ArrayList<byte[]>();
-		List<byte[]> publicKeys = new ArrayList<byte[]>();
-		List<Boolean> validSignatures = new ArrayList<Boolean>();
+	public static void generateEd25519Vectors(VectorSink sink, BinaryVectorFile binary, CheckpointRandom r, int count) {
+		SpoolFile messageSpool = new SpoolFile();
+		SpoolFile signatureSpool = new SpoolFile();
+		SpoolFile validSpool = new SpoolFile();
+		SpoolFile publicKeySpool = new SpoolFile();
 
-		for (byte[] message : getMessages(r)) {
-			byte[] seed = new byte[32];
-			r.nextBytes(seed);
+		try {
+			RunReport.phase("values");
 
-			PrivateKey privateKey = TwEd25519.createPrivateKey(seed);
-			PublicKey publicKey = TwEd25519.getPublicKey(privateKey);
+			byte[][] fixedMessages = getFixedMessages();
+			int total = fixedMessages.length + count;
 
-			byte[] publicKeyBytes = TwEd25519.getPublicKeyDERBytes(publicKey);
+			CheckpointRandom messageRandom = CheckpointRandom.fromState(r.getState());
+			for (int i = 0; i < count; i++) {
+				getRandomMessage(r);
+			}
 
-			byte[] signature;
+			for (int start = 0; start < total; start += BLOCK_SIZE) {
+				int size = Math.min(total - start, BLOCK_SIZE);
+
+				RunReport.phase("values");
+
+				final byte[][] baseMessages = new byte[size][];
+				for (int i = 0; i < size; i++) {
+					baseMessages[i] = start + i < fixedMessages.length ? fixedMessages[start + i] : getRandomMessage(messageRandom);
+				}
+				final Draws[] draws = new Draws[size];
+				for (int i = 0; i < size; i++) {
+					draws[i] = new Draws(r, baseMessages[i].length);
+				}
+
+				RunReport.phase("compute");
+
+				List<byte[][]> signed = Parallel.map(0, size, new Parallel.IndexedTask<byte[][]>() {
+					@Override
+					public byte[][] compute(int i) {
+						return sign(draws[i].seed, baseMessages[i]);
+					}
+				});
+
+				List<byte[]> messages = new ArrayList<byte[]>();
+				List<byte[]> signatures = new ArrayList<byte[]>();
+				List<byte[]> publicKeys = new ArrayList<byte[]>();
+				List<Boolean> validSignatures = new ArrayList<Boolean>();
+
+				for (int i = 0; i < size; i++) {
+					byte[] message = baseMessages[i];
+					byte[] signature = signed.get(i)[0];
+					byte[] publicKeyBytes = signed.get(i)[1];
+					Draws d = draws[i];
+
+					// Valid message
+					messages.add(message);
+					signatures.add(signature);
+					publicKeys.add(publicKeyBytes);
+					validSignatures.add(true);
+
+					if (message.length > 0) {
+						// Modified message
+						byte[] corruptMessage = Arrays.copyOf(message, message.length);
+						corruptMessage[d.messageIndex]++;
+						messages.add(corruptMessage);
+						signatures.add(signature);
+						publicKeys.add(publicKeyBytes);
+						validSignatures.add(false);
+					}
+
+					// Padded message
+					byte[] paddedMessage = Arrays.copyOf(message, message.length + d.messagePadding);
+					messages.add(paddedMessage);
+					signatures.add(signature);
+					publicKeys.add(publicKeyBytes);
+					validSignatures.add(false);
+
+					// Modified signature
+					byte[] corruptSignature = Arrays.copyOf(signature, signature.length);
+					corruptSignature[d.signatureIndex]++;
+					messages.add(message);
+					signatures.add(corruptSignature);
+					publicKeys.add(publicKeyBytes);
+					validSignatures.add(false);
+
+					// Padded signature
+					byte[] paddedSignature = Arrays.copyOf(signature, signature.length + d.signaturePadding);
+					messages.add(message);
+					signatures.add(paddedSignature);
+					publicKeys.add(publicKeyBytes);
+					validSignatures.add(false);
+
+					// Modified public key
+					byte[] corruptPublicKey = Arrays.copyOf(publicKeyBytes, publicKeyBytes.length);
+					corruptPublicKey[d.publicKeyIndex]++;
+					messages.add(message);
+					signatures.add(signature);
+					publicKeys.add(corruptPublicKey);
+					validSignatures.add(false);
+
+					// Padded public key
+					// Not possible, fixed at 64
+				}
+
+				RunReport.phase("verify");
+
+				checkVectors(messageSpool.getRecordCount(), messages, signatures, publicKeys, validSignatures);
+
+				RunReport.addVectors(messages.size());
+
+				RunReport.phase("format");
+
+				for (int i = 0; i < messages.size(); i++) {
+					messageSpool.writeRecord(messages.get(i));
+					signatureSpool.writeRecord(signatures.get(i));
+					validSpool.writeRecord(new byte[] {(byte) (validSignatures.get(i) ? 1 : 0)});
+					publicKeySpool.writeRecord(publicKeys.get(i));
+				}
+			}
 
-			try {
-				Signature verifier = Signature.getInstance("EdDSA", "BC");
+			if (binary != null) {
+				RunReport.phase("write");
+
+				writeBlobs(binary, "ed25519_messages", messageSpool);
+				writeBlobs(binary, "ed25519_signatures", signatureSpool);
+
+				ByteBuffer validRecords = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+				binary.beginRecords("ed25519_signature_valid", 4);
+				SpoolFile.Reader reader = validSpool.openReader();
+				for (byte[] valid = reader.next(); valid != null; valid = reader.next()) {
+					if (!validRecords.hasRemaining()) {
+						validRecords.flip();
+						binary.writeRecords(validRecords);
+						validRecords.clear();
+					}
+					validRecords.putInt(valid[0] != 0 ? 0 : -1);
+				}
+				validRecords.flip();
+				binary.writeRecords(validRecords);
+				binary.endTable();
+
+				writeBlobs(binary, "ed25519_public_keys", publicKeySpool);
+			}
 
-				verifier.initSign(privateKey);
+			RunReport.phase("format");
 
-				verifier.update(message);
+			sink.add("tw_u8* tw_ed25519_test_vector_messages[] = {");
 
-				signature = verifier.sign();
-			} catch (Exception e) {
-				signature = null;
+			SpoolFile.Reader reader = messageSpool.openReader();
+			for (byte[] message = reader.next(); message != null; message = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, message) + ",");
 			}
 
-			if (signature == null) {
-				throw new IllegalStateException("Unable to sign message");
-			}
+			sink.add("  };");
+			sink.add("");
 
-			// Valid message
-			messages.add(message);
-			signatures.add(signature);
-			publicKeys.add(publicKeyBytes);
-			validSignatures.add(true);
-
-			if (message.length > 0) {
-				// Modified message
-				byte[] corruptMessage = Arrays.copyOf(message, message.length);
-				corruptMessage[r.nextInt(message.length)]++;
-				messages.add(corruptMessage);
-				signatures.add(signature);
-				publicKeys.add(publicKeyBytes);
-				validSignatures.add(false);
-			}
+			sink.add("int tw_ed25519_test_vector_message_lengths[] = {");
 
-			// Padded message
-			byte[] paddedMessage = Arrays.copyOf(message, message.length + r.nextInt(5) + 1);
-			messages.add(paddedMessage);
-			signatures.add(signature);
-			publicKeys.add(publicKeyBytes);
-			validSignatures.add(false);
-
-			if (signature.length > 0) {
-				// Modified signature
-				byte[] corruptSignature = Arrays.copyOf(signature, signature.length);
-				corruptSignature[r.nextInt(signature.length)]++;
-				messages.add(message);
-				signatures.add(corruptSignature);
-				publicKeys.add(publicKeyBytes);
-				validSignatures.add(false);
+			reader = messageSpool.openReader();
+			for (byte[] message = reader.next(); message != null; message = reader.next()) {
+				sink.add("    " + message.length + ",");
 			}
 
-			// Padded signature
-			byte[] paddedSignature = Arrays.copyOf(signature, signature.length + r.nextInt(5) + 1);
-			messages.add(message);
-			signatures.add(paddedSignature);
-			publicKeys.add(publicKeyBytes);
-			validSignatures.add(false);
-
-			if (publicKeyBytes.length > 0) {
-				// Modified public key
-				byte[] corruptPublicKey = Arrays.copyOf(publicKeyBytes, publicKeyBytes.length);
-				corruptPublicKey[2 + r.nextInt(publicKeyBytes.length - 2)]++;
-				messages.add(message);
-				signatures.add(signature);
-				publicKeys.add(corruptPublicKey);
-				validSignatures.add(false);
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("tw_u8* tw_ed25519_test_vector_signatures[] = {");
+
+			reader = signatureSpool.openReader();
+			for (byte[] sig = reader.next(); sig != null; sig = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, sig) + ",");
 			}
 
-			// Padded public key
-			// Not possible, fixed at 64
-		}
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("tw_u8* tw_ed25519_test_vector_messages[] = {");
+			sink.add("int tw_ed25519_test_vector_signature_lengths[] = {");
 
-		for (byte[] message : messages) {
-			lines.add("    " + Convert.bytesToU8(false, message) + ",");
-		}
+			reader = signatureSpool.openReader();
+			for (byte[] sig = reader.next(); sig != null; sig = reader.next()) {
+				sink.add("    " + sig.length + ",");
+			}
 
-		lines.add("  };");
-		lines.add("");
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("int tw_ed25519_test_vector_message_lengths[] = {");
+			sink.add("int tw_ed25519_test_vector_signature_valid[] = {");
 
-		for (byte[] message : messages) {
-			lines.add("    " + message.length + ",");
-		}
+			reader = validSpool.openReader();
+			for (byte[] valid = reader.next(); valid != null; valid = reader.next()) {
+				int expected = valid[0] != 0 ? 0 : -1;
+				sink.add("    " + expected + ",");
+			}
 
-		lines.add("  };");
-		lines.add("");
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("tw_u8* tw_ed25519_test_vector_signatures[] = {");
+			sink.add("tw_u8* tw_ed25519_test_vector_public_keys[] = {");
 
-		for (byte[] sig : signatures) {
-			lines.add("    " + Convert.bytesToU8(false, sig) + ",");
-		}
+			reader = publicKeySpool.openReader();
+			for (byte[] publicKeyBytes = reader.next(); publicKeyBytes != null; publicKeyBytes = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, publicKeyBytes) + ",");
+			}
 
-		lines.add("  };");
-		lines.add("");
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("int tw_ed25519_test_vector_signature_lengths[] = {");
+			sink.add("#define ED25519_TEST_VECTORS_LENGTH " + messageSpool.getRecordCount());
+		} finally {
+			messageSpool.close();
+			signatureSpool.close();
+			validSpool.close();
+			publicKeySpool.close();
+		}
+	}
 
-		for (byte[] sig : signatures) {
-			lines.add("    " + sig.length + ",");
+	/**
+	 * Creates a key from the seed and signs the message.
+	 *
+	 * @return the signature and the encoded public key
+	 */
+	private static byte[][] sign(byte[] seed, byte[] message) {
+		Ed25519PrivateKeyParameters privateKey = TwEd25519.createRawPrivateKey(seed);
+		if (privateKey == null) {
+			throw new IllegalStateException("Unable to create private key");
 		}
 
-		lines.add("  };");
-		lines.add("");
+		byte[] publicKey = TwEd25519.getRawPublicKey(privateKey);
+
+		byte[] signature = TwEd25519.sign(privateKey, publicKey, message);
 
-		lines.add("int tw_ed25519_test_vector_signature_valid[] = {");
+		byte[] publicKeyBytes = TwEd25519.getPublicKeyDERBytes(publicKey);
 
-		for (boolean validSignature : validSignatures) {
-			int expected = validSignature ? 0 : -1;
-			lines.add("    " + expected + ",");
+		if (publicKeyBytes == null || publicKeyBytes.length != PUBLIC_KEY_LENGTH) {
+			throw new IllegalStateException("Unable to encode public key");
 		}
 
-		lines.add("  };");
-		lines.add("");
+		return new byte[][] {signature, publicKeyBytes};
+	}
 
-		lines.add("tw_u8* tw_ed25519_test_vector_public_keys[] = {");
+	/**
+	 * Checks the expected validity of every vector by verifying it.  The
+	 * vectors are verified in parallel, and generation fails if any result
+	 * differs from the expected validity.  The offset is the index of the
+	 * first vector, for error messages.
+	 */
+	private static void checkVectors(long offset, final List<byte[]> messages, final List<byte[]> signatures, final List<byte[]> publicKeys, List<Boolean> validSignatures) {
+		List<Boolean> verified = Parallel.map(0, messages.size(), new Parallel.IndexedTask<Boolean>() {
+			@Override
+			public Boolean compute(int i) {
+				return TwEd25519.verify(publicKeys.get(i), signatures.get(i), messages.get(i));
+			}
+		});
 
-		for (byte[] publicKeyBytes : publicKeys) {
-			lines.add("    " + Convert.bytesToU8(false, publicKeyBytes) + ",");
+		for (int i = 0; i < verified.size(); i++) {
+			if (!verified.get(i).equals(validSignatures.get(i))) {
+				throw new IllegalStateException("Ed25519 vector " + (offset + i) + " expected " + (validSignatures.get(i) ? "valid" : "invalid") + " but verified as " + (verified.get(i) ? "valid" : "invalid"));
+			}
 		}
+	}
 
-		lines.add("  };");
-		lines.add("");
-
-		lines.add("#define ED25519_TEST_VECTORS_LENGTH " + messages.size());
+	private static void writeBlobs(BinaryVectorFile binary, String name, SpoolFile blobs) {
+		binary.beginBlobs(name);
+		SpoolFile.Reader reader = blobs.openReader();
+		for (byte[] blob = reader.next(); blob != null; blob = reader.next()) {
+			binary.writeBlob(blob);
+		}
+		binary.endTable();
+	}
 
-		return lines;
+	/**
+	 * The random values drawn for a message, in the order of the original
+	 * serial loop.  The signature and public key lengths are fixed, so the
+	 * draws do not depend on the signing result.
+	 */
+	private static class Draws {
+		private final byte[] seed = new byte[32];
+		private final int messageIndex;
+		private final int messagePadding;
+		private final int signatureIndex;
+		private final int signaturePadding;
+		private final int publicKeyIndex;
+
+		public Draws(Random r, int messageLength) {
+			r.nextBytes(seed);
+			messageIndex = messageLength > 0 ? r.nextInt(messageLength) : -1;
+			messagePadding = r.nextInt(5) + 1;
+			signatureIndex = r.nextInt(SIGNATURE_LENGTH);
+			signaturePadding = r.nextInt(5) + 1;
+			publicKeyIndex = TwEd25519.PUBLIC_KEY_DER_HEADER_LENGTH + r.nextInt(PUBLIC_KEY_LENGTH - TwEd25519.PUBLIC_KEY_DER_HEADER_LENGTH);
+		}
 	}
 }
@@ -1,46 +1,121 @@
 package org.twinecoin.test.vectors;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
-import org.twinecoin.test.crypt.RIPEMD160;
-import org.twinecoin.test.crypt.SHA256;
-import org.twinecoin.test.crypt.SHA512;
+import org.twinecoin.test.crypt.MultiDigest;
+import org.twinecoin.test.util.Config;
+import org.twinecoin.test.util.Parallel;
+import org.twinecoin.test.util.RunReport;
 
 /**
  * Class to generate test vectors for the tw_sha256 class.<br>
  * <br>
  * This ensures that the test vectors are generated by a separate
- * implementation.
+ * implementation.<br>
+ * <br>
+ * The number of random messages is set by the "hash.count" option and the
+ * seed by the "hash.seed" option.  The "hash.large" option adds a 512 MB
+ * message, 0x2000000 repeats of a 16 byte message, which is disabled by
+ * default since hashing it takes longer than the rest of the run.
+ * Messages are drawn and hashed a block at a time, and the messages,
+ * repeats and hashes are held in spool files until every block has been
+ * hashed.  Each array is then written from its spool, so the heap used
+ * does not depend on the number of messages.
  */
 public class HashTestVectors {
 
-	public static List<String> generateVectors() {
+	/**
+	 * The generator version, which must be incremented when a change alters
+	 * the generated vectors.
+	 */
+	public final static int VERSION = 3;
+
+	public final static long SEED = 0x280e788cff6ec2bbL;
+
+	/**
+	 * The default number of random messages
+	 */
+	private final static int DEFAULT_COUNT = 500;
+
+	/**
+	 * The number of messages hashed in parallel before they are spooled
+	 */
+	private final static int BLOCK_SIZE = 1024;
+
+	/**
+	 * The digests in output order, with the array and table names
+	 */
+	private final static int[] DIGEST_INDEXES = new int[] {
+		MultiDigest.SHA256_INDEX,
+		MultiDigest.SHA512_INDEX,
+		MultiDigest.RIPEMD160_INDEX,
+		MultiDigest.DSHA256_INDEX,
+		MultiDigest.DSHA512_INDEX,
+		MultiDigest.DRIPEMD160_INDEX
+	};
+
+	private final static String[] DIGEST_NAMES = new String[] {"sha256", "sha512", "ripemd160", "dsha256", "dsha512", "dripemd160"};
+
+	public static void generateVectors(VectorSink sink, BinaryVectorFile binary) {
 		Random r = getRandom();
 
-		List<String> lines = new ArrayList<String>();
+		generateSHA256Vectors(sink, binary, r, getCount());
+	}
 
-		List<Integer> repeats = new ArrayList<Integer>();
-		List<byte[]> messages = generateTestMessages(r, repeats);
-		lines.addAll(generateSHA256Vectors(messages, repeats));
+	/**
+	 * Gets the number of random messages, set by the "hash.count" option.
+	 */
+	public static int getCount() {
+		return Config.getCount("hash.count", DEFAULT_COUNT);
+	}
+
+	/**
+	 * Checks if the 512 MB message is included, set by the "hash.large"
+	 * option.
+	 */
+	public static boolean isLarge() {
+		return Config.getBoolean("hash.large", false);
+	}
 
-		return lines;
+	/**
+	 * Gets the seed, set by the "hash.seed" option.
+	 */
+	public static long getSeed() {
+		return Config.getLong("hash.seed", SEED);
 	}
 
 	public static Random getRandom() {
 		Random r = new Random();
 
 		// Seed random so that results are consistent
-		r.setSeed(0x280e788cff6ec2bbL);
+		r.setSeed(getSeed());
 		return r;
 	}
 
-	public static List<byte[]> generateTestMessages(Random r, List<Integer> repeats) {
-		List<byte[]> messages = new ArrayList<byte[]>();
+	/**
+	 * Gets the parameters which determine the generated vectors, for use
+	 * in output fingerprints.
+	 */
+	public static Map<String, String> getParameters() {
+		Map<String, String> parameters = new TreeMap<String, String>();
+		parameters.put("version", Integer.toString(VERSION));
+		parameters.put("seed", Long.toHexString(getSeed()));
+		parameters.put("count", Integer.toString(getCount()));
+		parameters.put("large", Boolean.toString(isLarge()));
+		return parameters;
+	}
 
+	/**
+	 * Adds the fixed messages and their repeat counts.
+	 */
+	public static void addFixedMessages(List<byte[]> messages, List<Integer> repeats) {
 		/**
 		 * Extremes
 		 */
@@ -68,135 +143,201 @@ public class HashTestVectors {
 		repeats.add(8);
 		messages.add("a".getBytes(StandardCharsets.US_ASCII));
 		repeats.add(1000000);
-		//messages.add("0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII));
-		//repeats.add(0x2000000);
-
-		/**
-		 * Purely random vectors
-		 */
-		for (int i = 0; i < 500; i++) {
-			int mask = (1 << (r.nextInt(10))) - 1;
-			byte[] message = new byte[r.nextInt() & mask];
-			r.nextBytes(message);
-			messages.add(message);
-			int rep;
-			if (r.nextInt(5) == 0) {
-				rep = r.nextInt(50);
-			} else {
-				rep = 1;
-			}
-			repeats.add(rep);
+		if (isLarge()) {
+			messages.add("0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII));
+			repeats.add(0x2000000);
 		}
-
-		return messages;
 	}
 
-	public static List<String> generateSHA256Vectors(List<byte[]> messages, List<Integer> repeats) {
-		List<String> lines = new ArrayList<String>();
-
-		List<byte[]> SHA256Hashes = generateHashes(messages, repeats, SHA256.getSHA256MessageDigest());
-		List<byte[]> SHA512Hashes = generateHashes(messages, repeats, SHA512.getSHA512MessageDigest());
-		List<byte[]> RIPEMD160Hashes = generateHashes(messages, repeats, RIPEMD160.getRIPEMD160MessageDigest());
-		List<byte[]> DSHA256Hashes = generateHashes(messages, repeats, SHA256.getDSHA256MessageDigest());
-		List<byte[]> DSHA512Hashes = generateHashes(messages, repeats, SHA512.getDSHA512MessageDigest());
-		List<byte[]> DRIPEMD160Hashes = generateHashes(messages, repeats, RIPEMD160.getDRIPEMD160MessageDigest());
-
-		lines.add("tw_u8* tw_hash_test_vector_messages[] = {");
+	/**
+	 * Draws a purely random message and its repeat count.
+	 */
+	public static void addRandomMessage(Random r, List<byte[]> messages, List<Integer> repeats) {
+		int mask = (1 << (r.nextInt(10))) - 1;
+		byte[] message = new byte[r.nextInt() & mask];
+		r.nextBytes(message);
+		messages.add(message);
+		int rep;
+		if (r.nextInt(5) == 0) {
+			rep = r.nextInt(50);
+		} else {
+			rep = 1;
+		}
+		repeats.add(rep);
+	}
 
-		for (byte[] message : messages) {
-			lines.add("    " + Convert.bytesToU8(false, message) + ",");
+	/**
+	 * Generates the hash vectors for the fixed messages followed by count
+	 * random messages.  If the binary file is not null, the messages,
+	 * repeats and hashes are also written to it.
+	 */
+	public static void generateSHA256Vectors(VectorSink sink, BinaryVectorFile binary, Random r, int count) {
+		SpoolFile messageSpool = new SpoolFile();
+		SpoolFile repeatSpool = new SpoolFile();
+		SpoolFile[] digestSpools = new SpoolFile[DIGEST_INDEXES.length];
+		for (int i = 0; i < digestSpools.length; i++) {
+			digestSpools[i] = new SpoolFile();
 		}
 
-		lines.add("  };");
-		lines.add("");
+		try {
+			List<byte[]> messages = new ArrayList<byte[]>(BLOCK_SIZE);
+			List<Integer> repeats = new ArrayList<Integer>(BLOCK_SIZE);
 
-		lines.add("int tw_hash_test_vector_message_lengths[] = {");
+			RunReport.phase("values");
 
-		for (byte[] message : messages) {
-			lines.add("    " + message.length + ",");
-		}
+			addFixedMessages(messages, repeats);
 
-		lines.add("  };");
-		lines.add("");
+			int drawn = 0;
+			while (true) {
+				while (drawn < count && messages.size() < BLOCK_SIZE) {
+					addRandomMessage(r, messages, repeats);
+					drawn++;
+				}
+				if (messages.isEmpty()) {
+					break;
+				}
 
-		lines.add("int tw_hash_test_vector_message_repeats[] = {");
+				RunReport.phase("compute");
 
-		for (Integer r : repeats) {
-			lines.add("    " + r + ",");
-		}
+				List<byte[][]> hashes = generateHashes(messages, repeats);
 
-		lines.add("  };");
-		lines.add("");
+				RunReport.phase("format");
 
-		lines.add("tw_u512 tw_sha256_test_vector_hashes[] = {");
+				for (int i = 0; i < messages.size(); i++) {
+					messageSpool.writeRecord(messages.get(i));
+					repeatSpool.writeRecord(ByteBuffer.allocate(4).putInt(repeats.get(i)).array());
+					for (int j = 0; j < digestSpools.length; j++) {
+						digestSpools[j].writeRecord(hashes.get(i)[DIGEST_INDEXES[j]]);
+					}
+				}
 
-		for (byte[] hash : SHA256Hashes) {
-			lines.add("    " + Convert.LEBytesToU512(hash) + ",");
-		}
+				RunReport.addVectors(messages.size());
 
-		lines.add("  };");
-		lines.add("");
+				messages.clear();
+				repeats.clear();
 
-		lines.add("tw_u512 tw_sha512_test_vector_hashes[] = {");
+				RunReport.phase("values");
+			}
 
-		for (byte[] hash : SHA512Hashes) {
-			lines.add("    " + Convert.LEBytesToU512(hash) + ",");
-		}
+			RunReport.phase("format");
 
-		lines.add("  };");
-		lines.add("");
+			sink.add("tw_u8* tw_hash_test_vector_messages[] = {");
 
-		lines.add("tw_u512 tw_ripemd160_test_vector_hashes[] = {");
+			SpoolFile.Reader reader = messageSpool.openReader();
+			for (byte[] message = reader.next(); message != null; message = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, message) + ",");
+			}
 
-		for (byte[] hash : RIPEMD160Hashes) {
-			lines.add("    " + Convert.LEBytesToU512(hash) + ",");
-		}
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("  };");
-		lines.add("");
+			sink.add("int tw_hash_test_vector_message_lengths[] = {");
 
-		lines.add("tw_u512 tw_dsha256_test_vector_hashes[] = {");
+			reader = messageSpool.openReader();
+			for (byte[] message = reader.next(); message != null; message = reader.next()) {
+				sink.add("    " + message.length + ",");
+			}
 
-		for (byte[] hash : DSHA256Hashes) {
-			lines.add("    " + Convert.LEBytesToU512(hash) + ",");
-		}
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("  };");
-		lines.add("");
+			sink.add("int tw_hash_test_vector_message_repeats[] = {");
 
-		lines.add("tw_u512 tw_dsha512_test_vector_hashes[] = {");
+			reader = repeatSpool.openReader();
+			for (byte[] repeat = reader.next(); repeat != null; repeat = reader.next()) {
+				sink.add("    " + ByteBuffer.wrap(repeat).getInt() + ",");
+			}
 
-		for (byte[] hash : DSHA512Hashes) {
-			lines.add("    " + Convert.LEBytesToU512(hash) + ",");
-		}
+			sink.add("  };");
+			sink.add("");
 
-		lines.add("  };");
-		lines.add("");
-		lines.add("tw_u512 tw_dripemd160_test_vector_hashes[] = {");
+			for (int i = 0; i < digestSpools.length; i++) {
+				sink.add("tw_u512 tw_" + DIGEST_NAMES[i] + "_test_vector_hashes[] = {");
 
-		for (byte[] hash : DRIPEMD160Hashes) {
-			lines.add("    " + Convert.LEBytesToU512(hash) + ",");
-		}
+				reader = digestSpools[i].openReader();
+				for (byte[] hash = reader.next(); hash != null; hash = reader.next()) {
+					sink.add("    " + Convert.LEBytesToU512(hash) + ",");
+				}
 
-		lines.add("  };");
-		lines.add("");
-		lines.add("#define HASH_TEST_VECTORS_LENGTH " + messages.size());
+				sink.add("  };");
+				sink.add("");
+			}
 
-		return lines;
+			sink.add("#define HASH_TEST_VECTORS_LENGTH " + messageSpool.getRecordCount());
+
+			if (binary != null) {
+				RunReport.phase("write");
+
+				binary.beginBlobs("hash_messages");
+				reader = messageSpool.openReader();
+				for (byte[] message = reader.next(); message != null; message = reader.next()) {
+					binary.writeBlob(message);
+				}
+				binary.endTable();
+
+				ByteBuffer repeatRecords = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+				binary.beginRecords("hash_message_repeats", 4);
+				reader = repeatSpool.openReader();
+				for (byte[] repeat = reader.next(); repeat != null; repeat = reader.next()) {
+					if (!repeatRecords.hasRemaining()) {
+						repeatRecords.flip();
+						binary.writeRecords(repeatRecords);
+						repeatRecords.clear();
+					}
+					repeatRecords.putInt(ByteBuffer.wrap(repeat).getInt());
+				}
+				repeatRecords.flip();
+				binary.writeRecords(repeatRecords);
+				binary.endTable();
+
+				for (int i = 0; i < digestSpools.length; i++) {
+					writeHashes(binary, DIGEST_NAMES[i] + "_hashes", digestSpools[i]);
+				}
+			}
+		} finally {
+			messageSpool.close();
+			repeatSpool.close();
+			for (SpoolFile spool : digestSpools) {
+				spool.close();
+			}
+		}
 	}
 
-	private static List<byte[]> generateHashes(List<byte[]> messages, List<Integer> repeats, MessageDigest md) {
-		List<byte[]> hashes = new ArrayList<byte[]>(messages.size());
-		for (int i = 0; i < messages.size(); i++) {
-			md.reset();
-			byte[] message = messages.get(i);
-			int repeat = repeats.get(i);
-			for (int j = 0; j < repeat; j++) {
-				md.update(message);
+	/**
+	 * Writes hashes as a table of tw_u512 records.  The digest bytes are the
+	 * little endian bytes of the tw_u512, so shorter digests are zero padded.
+	 */
+	private static void writeHashes(BinaryVectorFile binary, String name, SpoolFile hashes) {
+		ByteBuffer record = ByteBuffer.allocate(64);
+		binary.beginRecords(name, 64);
+		SpoolFile.Reader reader = hashes.openReader();
+		for (byte[] hash = reader.next(); hash != null; hash = reader.next()) {
+			record.clear();
+			record.put(hash, 0, Math.min(hash.length, 64));
+			while (record.hasRemaining()) {
+				record.put((byte) 0);
 			}
-			byte[] hash = md.digest();
-			hashes.add(hash);
+			record.flip();
+			binary.writeRecords(record);
 		}
-		return hashes;
+		binary.endTable();
+	}
+
+	/**
+	 * Computes all the hashes for each message in a single pass over the
+	 * message.  The messages are hashed in parallel and the results are
+	 * returned in message order.
+	 */
+	private static List<byte[][]> generateHashes(final List<byte[]> messages, final List<Integer> repeats) {
+		return Parallel.map(0, messages.size(), new Parallel.IndexedTask<byte[][]>() {
+			@Override
+			public byte[][] compute(int index) {
+				byte[][] hashes = MultiDigest.digest(messages.get(index), repeats.get(index));
+				if (hashes == null) {
+					throw new IllegalStateException("Unable to create message digests");
+				}
+				return hashes;
+			}
+		});
 	}
 }
@@ -0,0 +1,109 @@
+package org.twinecoin.test.vectors;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Lazily materialized pool of 512-bit integers built from edge value words.<br>
+ * <br>
+ * Only entries which are sampled are converted to BigIntegers.  In
+ * compatible mode, the pool consumes the same draws from the caller's
+ * random source as an eagerly built list would, and records a checkpoint
+ * of the random state every {@link #CHECKPOINT_INTERVAL} entries.  An entry
+ * is materialized by replaying the draws from the nearest checkpoint, so
+ * the values are identical to those of the eager list.<br>
+ * <br>
+ * In seeded mode, each entry is drawn from its own random substream derived
+ * from the pool seed and the entry index.  Nothing is drawn from the
+ * caller's random source and no construction pass is needed.
+ */
+public class IntegerPool {
+
+	private final static int CHECKPOINT_INTERVAL = 64;
+
+	private final int size;
+	private final long[] edgeValues;
+	private final long[] checkpoints;
+	private final long seed;
+
+	private IntegerPool(int size, long[] edgeValues, long[] checkpoints, long seed) {
+		this.size = size;
+		this.edgeValues = edgeValues;
+		this.checkpoints = checkpoints;
+		this.seed = seed;
+	}
+
+	/**
+	 * Creates a pool which reproduces an eagerly built pool drawn from r.
+	 * The random source is advanced past all the pool draws.
+	 *
+	 * @param r the random source
+	 * @param size the number of entries
+	 * @param edgeValues the edge values for the 64-bit words
+	 * @return the pool
+	 */
+	public static IntegerPool compatible(CheckpointRandom r, int size, long[] edgeValues) {
+		long[] checkpoints = new long[(size + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL];
+		long[] value = new long[8];
+		for (int i = 0; i < size; i++) {
+			if ((i % CHECKPOINT_INTERVAL) == 0) {
+				checkpoints[i / CHECKPOINT_INTERVAL] = r.getState();
+			}
+			drawEntry(r, edgeValues, value);
+		}
+		return new IntegerPool(size, edgeValues, checkpoints, 0);
+	}
+
+	/**
+	 * Creates a pool where each entry is drawn from a substream of the seed.
+	 *
+	 * @param seed the pool seed
+	 * @param size the number of entries
+	 * @param edgeValues the edge values for the 64-bit words
+	 * @return the pool
+	 */
+	public static IntegerPool seeded(long seed, int size, long[] edgeValues) {
+		return new IntegerPool(size, edgeValues, null, seed);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets an entry from the pool.  This method is thread safe.
+	 *
+	 * @param index the index of the entry
+	 * @return the entry
+	 */
+	public BigInteger get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Pool index out of range, " + index);
+		}
+
+		long[] value = new long[8];
+
+		if (checkpoints == null) {
+			drawEntry(CheckpointRandom.substream(seed, index), edgeValues, value);
+		} else {
+			CheckpointRandom r = CheckpointRandom.fromState(checkpoints[index / CHECKPOINT_INTERVAL]);
+			int skip = index % CHECKPOINT_INTERVAL;
+			for (int i = 0; i <= skip; i++) {
+				drawEntry(r, edgeValues, value);
+			}
+		}
+
+		return Convert.longToBigInteger(value);
+	}
+
+	private static void drawEntry(Random r, long[] edgeValues, long[] value) {
+		for (int j = 0; j < value.length; j++) {
+			int option = r.nextInt(edgeValues.length);
+			if (r.nextInt(4) == 0) {
+				value[j] = r.nextLong();
+			} else {
+				value[j] = edgeValues[option];
+			}
+		}
+	}
+}
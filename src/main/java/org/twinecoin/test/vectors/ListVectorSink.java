@@ -0,0 +1,29 @@
+package org.twinecoin.test.vectors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vector sink which collects the lines into a list.
+ */
+public class ListVectorSink implements VectorSink {
+
+	private final List<String> lines;
+
+	public ListVectorSink() {
+		this(new ArrayList<String>());
+	}
+
+	public ListVectorSink(List<String> lines) {
+		this.lines = lines;
+	}
+
+	@Override
+	public void add(String line) {
+		lines.add(line);
+	}
+
+	public List<String> getLines() {
+		return lines;
+	}
+}
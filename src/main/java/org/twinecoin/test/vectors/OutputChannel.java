@@ -0,0 +1,164 @@
+package org.twinecoin.test.vectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.twinecoin.test.util.Config;
+import org.twinecoin.test.util.RunReport;
+
+/**
+ * Output file which is written to a temporary file and renamed into place
+ * when complete.<br>
+ * <br>
+ * The data is written to filename.tmp in the output directory.
+ * {@link #commit()} optionally forces the data to disk, closes the file and
+ * atomically renames it to the final filename, so readers never see a
+ * partially written file.  {@link #abort()} deletes the temporary file.
+ * Forcing to disk is enabled by the "fsync" option.<br>
+ * <br>
+ * The bytes written and the time spent writing are added to the
+ * {@link RunReport} of the thread which commits the file.
+ */
+public class OutputChannel {
+
+	private final File file;
+
+	private final File tempFile;
+
+	private final FileChannel channel;
+
+	private long bytesWritten;
+
+	private long writeNanos;
+
+	private boolean closed;
+
+	private boolean committed;
+
+	private OutputChannel(File file, File tempFile, FileChannel channel) {
+		this.file = file;
+		this.tempFile = tempFile;
+		this.channel = channel;
+	}
+
+	/**
+	 * Creates an output file.
+	 *
+	 * @param dir the output directory, which is created if required
+	 * @param filename the final filename
+	 * @return the output file
+	 * @throws IOException if the temporary file could not be created
+	 */
+	public static OutputChannel create(File dir, String filename) throws IOException {
+		dir.mkdirs();
+
+		File file = new File(dir, filename);
+		File tempFile = new File(dir, filename + ".tmp");
+
+		FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		return new OutputChannel(file, tempFile, channel);
+	}
+
+	/**
+	 * Gets the final file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes all the remaining bytes of a buffer at the current position.
+	 *
+	 * @param src the buffer
+	 * @throws IOException if the bytes could not be written
+	 */
+	public void write(ByteBuffer src) throws IOException {
+		long start = System.nanoTime();
+		int length = src.remaining();
+		while (src.hasRemaining()) {
+			channel.write(src);
+		}
+		bytesWritten += length;
+		writeNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Writes all the remaining bytes of a buffer at the given position.  The
+	 * current position is not changed.  This is used to overwrite space
+	 * which was reserved earlier, so it is not counted as bytes written.
+	 *
+	 * @param src the buffer
+	 * @param position the file position
+	 * @throws IOException if the bytes could not be written
+	 */
+	public void write(ByteBuffer src, long position) throws IOException {
+		long start = System.nanoTime();
+		while (src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+		writeNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Forces the file to disk if the "fsync" option is set, closes it and
+	 * renames it to the final filename.
+	 *
+	 * @throws IOException if the file could not be completed, in which case
+	 *         the temporary file is deleted
+	 */
+	public void commit() throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Output file already closed, " + file);
+		}
+		long start = System.nanoTime();
+		try {
+			if (Config.getBoolean("fsync", false)) {
+				channel.force(true);
+			}
+			closed = true;
+			channel.close();
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+		committed = true;
+		writeNanos += System.nanoTime() - start;
+
+		RunReport.Generator report = RunReport.current();
+		if (report != null) {
+			report.addWrite(bytesWritten, writeNanos);
+		}
+	}
+
+	/**
+	 * Closes and deletes the temporary file, if the file has not been
+	 * committed.
+	 */
+	public void abort() {
+		if (committed) {
+			return;
+		}
+		if (!closed) {
+			closed = true;
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+		tempFile.delete();
+	}
+}
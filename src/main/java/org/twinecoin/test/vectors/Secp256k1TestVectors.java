@@ -0,0 +1,358 @@
+package org.twinecoin.test.vectors;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.twinecoin.test.crypt.Secp256k1;
+import org.twinecoin.test.util.Config;
+import org.twinecoin.test.util.Parallel;
+import org.twinecoin.test.util.RunReport;
+
+/**
+ * Class to generate test vectors for secp256k1 ECDSA signatures.<br>
+ * <br>
+ * This ensures that the test vectors are generated by a separate
+ * implementation.<br>
+ * <br>
+ * Each key is drawn from its own substream of the seed and signed with a
+ * deterministic nonce, so the vectors do not depend on the number of
+ * threads.  The number of keys is set by the "secp256k1.count" option and
+ * the seed by the "secp256k1.seed" option.  The expected validity of every
+ * vector is computed by verifying it.<br>
+ * <br>
+ * Keys are signed and verified a block at a time, and the vectors are held
+ * in spool files until every block is complete, so the heap used does not
+ * depend on the number of keys.
+ */
+public class Secp256k1TestVectors {
+
+	/**
+	 * The generator version, which must be incremented when a change alters
+	 * the generated vectors.
+	 */
+	public final static int VERSION = 1;
+
+	public final static long SEED = 0x280e788cff6ec2bbL;
+
+	private final static int DEFAULT_COUNT = 256;
+
+	/**
+	 * The number of vectors generated for each key, starting with the
+	 * unmodified signature
+	 */
+	private final static int VECTORS_PER_KEY = 6;
+
+	/**
+	 * The number of keys signed in parallel before their vectors are spooled
+	 */
+	private final static int BLOCK_SIZE = 256;
+
+	public static void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+		generateSecp256k1Vectors(sink, binary, getCount());
+	}
+
+	public static int getCount() {
+		int count = Config.getInt("secp256k1.count", DEFAULT_COUNT);
+		if (count < 1) {
+			throw new IllegalArgumentException("Option secp256k1.count must be at least 1, " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the seed, set by the "secp256k1.seed" option.
+	 */
+	public static long getSeed() {
+		return Config.getLong("secp256k1.seed", SEED);
+	}
+
+	/**
+	 * Gets the parameters which determine the generated vectors, for use
+	 * in output fingerprints.
+	 */
+	public static Map<String, String> getParameters() {
+		Map<String, String> parameters = new TreeMap<String, String>();
+		parameters.put("version", Integer.toString(VERSION));
+		parameters.put("seed", Long.toHexString(getSeed()));
+		parameters.put("count", Integer.toString(getCount()));
+		return parameters;
+	}
+
+	/**
+	 * Generates the secp256k1 vectors.  If the binary file is not null, the
+	 * messages, signatures, validity flags and public keys are also written
+	 * to it.
+	 */
+	public static void generateSecp256k1Vectors(VectorSink sink, BinaryVectorFile binary, int count) {
+		generateSecp256k1Vectors(sink, binary, getSeed(), count);
+	}
+
+	public static void generateSecp256k1Vectors(VectorSink sink, BinaryVectorFile binary, final long seed, int count) {
+		SpoolFile messageSpool = new SpoolFile();
+		SpoolFile signatureSpool = new SpoolFile();
+		SpoolFile validSpool = new SpoolFile();
+		SpoolFile publicKeySpool = new SpoolFile();
+
+		try {
+			for (int start = 0; start < count; start += BLOCK_SIZE) {
+				RunReport.phase("compute");
+
+				List<List<Vector>> keyVectors = Parallel.map(start, Math.min(count, start + BLOCK_SIZE), new Parallel.IndexedTask<List<Vector>>() {
+					@Override
+					public List<Vector> compute(int index) {
+						return generateKeyVectors(CheckpointRandom.substream(seed, index));
+					}
+				});
+
+				List<Vector> vectors = new ArrayList<Vector>();
+				for (List<Vector> v : keyVectors) {
+					vectors.addAll(v);
+				}
+
+				BitSet valid = verifyVectors(messageSpool.getRecordCount(), vectors);
+
+				RunReport.addVectors(vectors.size());
+
+				RunReport.phase("format");
+
+				for (int i = 0; i < vectors.size(); i++) {
+					Vector vector = vectors.get(i);
+					messageSpool.writeRecord(vector.message);
+					signatureSpool.writeRecord(vector.signature);
+					validSpool.writeRecord(new byte[] {(byte) (valid.get(i) ? 1 : 0)});
+					publicKeySpool.writeRecord(vector.publicKeyBytes);
+				}
+			}
+
+			if (binary != null) {
+				RunReport.phase("write");
+
+				writeBlobs(binary, "secp256k1_messages", messageSpool);
+				writeBlobs(binary, "secp256k1_signatures", signatureSpool);
+				ByteBuffer validRecords = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+				binary.beginRecords("secp256k1_signature_valid", 4);
+				SpoolFile.Reader reader = validSpool.openReader();
+				for (byte[] valid = reader.next(); valid != null; valid = reader.next()) {
+					if (!validRecords.hasRemaining()) {
+						validRecords.flip();
+						binary.writeRecords(validRecords);
+						validRecords.clear();
+					}
+					validRecords.putInt(valid[0] != 0 ? 0 : -1);
+				}
+				validRecords.flip();
+				binary.writeRecords(validRecords);
+				binary.endTable();
+				writeBlobs(binary, "secp256k1_public_keys", publicKeySpool);
+			}
+
+			RunReport.phase("format");
+
+			sink.add("tw_u8* tw_secp256k1_test_vector_messages[] = {");
+
+			SpoolFile.Reader reader = messageSpool.openReader();
+			for (byte[] message = reader.next(); message != null; message = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, message) + ",");
+			}
+
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("tw_u8* tw_secp256k1_test_vector_signatures[] = {");
+
+			reader = signatureSpool.openReader();
+			for (byte[] signature = reader.next(); signature != null; signature = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, signature) + ",");
+			}
+
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("int tw_secp256k1_test_vector_signature_lengths[] = {");
+
+			reader = signatureSpool.openReader();
+			for (byte[] signature = reader.next(); signature != null; signature = reader.next()) {
+				sink.add("    " + signature.length + ",");
+			}
+
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("int tw_secp256k1_test_vector_signature_valid[] = {");
+
+			reader = validSpool.openReader();
+			for (byte[] valid = reader.next(); valid != null; valid = reader.next()) {
+				int expected = valid[0] != 0 ? 0 : -1;
+				sink.add("    " + expected + ",");
+			}
+
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("tw_u8* tw_secp256k1_test_vector_public_keys[] = {");
+
+			reader = publicKeySpool.openReader();
+			for (byte[] publicKeyBytes = reader.next(); publicKeyBytes != null; publicKeyBytes = reader.next()) {
+				sink.add("    " + Convert.bytesToU8(false, publicKeyBytes) + ",");
+			}
+
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("int tw_secp256k1_test_vector_public_key_lengths[] = {");
+
+			reader = publicKeySpool.openReader();
+			for (byte[] publicKeyBytes = reader.next(); publicKeyBytes != null; publicKeyBytes = reader.next()) {
+				sink.add("    " + publicKeyBytes.length + ",");
+			}
+
+			sink.add("  };");
+			sink.add("");
+
+			sink.add("#define SECP256K1_TEST_VECTORS_LENGTH " + messageSpool.getRecordCount());
+		} finally {
+			messageSpool.close();
+			signatureSpool.close();
+			validSpool.close();
+			publicKeySpool.close();
+		}
+	}
+
+	/**
+	 * Generates the vectors for a single key: a valid signature followed by
+	 * corrupted variants of the message, signature and public key.
+	 */
+	private static List<Vector> generateKeyVectors(Random r) {
+		List<Vector> vectors = new ArrayList<Vector>();
+
+		BigInteger order = Secp256k1.getOrder();
+		BigInteger x;
+		do {
+			x = new BigInteger(256, r);
+		} while (x.signum() == 0 || x.compareTo(order) >= 0);
+
+		byte[] message = new byte[32];
+		r.nextBytes(message);
+
+		boolean compressed = r.nextBoolean();
+
+		ECPrivateKey privateKey = Secp256k1.getECPrivateKey(x);
+		ECPublicKey publicKey = privateKey == null ? null : Secp256k1.getECPublicKey(privateKey);
+		byte[] signature = privateKey == null ? null : Secp256k1.signDeterministic(privateKey, message);
+
+		if (publicKey == null || signature == null) {
+			throw new IllegalStateException("Unable to sign message");
+		}
+
+		byte[] publicKeyBytes = Secp256k1.encodeDER(publicKey, compressed);
+
+		// Valid message
+		vectors.add(new Vector(message, signature, publicKeyBytes, publicKey));
+
+		// Modified message
+		byte[] corruptMessage = Arrays.copyOf(message, message.length);
+		corruptMessage[r.nextInt(message.length)]++;
+		vectors.add(new Vector(corruptMessage, signature, publicKeyBytes, publicKey));
+
+		// Modified signature
+		byte[] corruptSignature = Arrays.copyOf(signature, signature.length);
+		corruptSignature[r.nextInt(signature.length)]++;
+		vectors.add(new Vector(message, corruptSignature, publicKeyBytes, publicKey));
+
+		// Padded signature
+		byte[] paddedSignature = Arrays.copyOf(signature, signature.length + r.nextInt(5) + 1);
+		vectors.add(new Vector(message, paddedSignature, publicKeyBytes, publicKey));
+
+		// Modified public key, which may not be a valid point
+		byte[] corruptPublicKey = Arrays.copyOf(publicKeyBytes, publicKeyBytes.length);
+		corruptPublicKey[1 + r.nextInt(publicKeyBytes.length - 1)]++;
+		vectors.add(new Vector(message, signature, corruptPublicKey, Secp256k1.decodeDER(corruptPublicKey)));
+
+		// Flipped y parity, which is the negated public key
+		byte[] negatedPublicKey = Arrays.copyOf(publicKeyBytes, publicKeyBytes.length);
+		if (compressed) {
+			negatedPublicKey[0] ^= 1;
+		} else {
+			BigInteger y = publicKey.getW().getAffineY();
+			byte[] negatedY = Secp256k1.getP().subtract(y).toByteArray();
+			Arrays.fill(negatedPublicKey, 33, 65, (byte) 0);
+			int length = Math.min(32, negatedY.length);
+			System.arraycopy(negatedY, negatedY.length - length, negatedPublicKey, 65 - length, length);
+		}
+		vectors.add(new Vector(message, signature, negatedPublicKey, Secp256k1.decodeDER(negatedPublicKey)));
+
+		return vectors;
+	}
+
+	/**
+	 * Computes the expected validity of each vector.  The unmodified
+	 * signatures must all be valid.  The offset is the index of the first
+	 * vector, for error messages.
+	 */
+	private static BitSet verifyVectors(long offset, List<Vector> vectors) {
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int i = 0; i < vectors.size(); i++) {
+			if (vectors.get(i).publicKey != null) {
+				indexes.add(i);
+			}
+		}
+
+		ECPublicKey[] pubs = new ECPublicKey[indexes.size()];
+		byte[][] messages = new byte[indexes.size()][];
+		byte[][] sigs = new byte[indexes.size()][];
+		for (int i = 0; i < indexes.size(); i++) {
+			Vector vector = vectors.get(indexes.get(i));
+			pubs[i] = vector.publicKey;
+			messages[i] = vector.message;
+			sigs[i] = vector.signature;
+		}
+
+		BitSet verified = Secp256k1.verify(pubs, messages, sigs);
+
+		BitSet valid = new BitSet(vectors.size());
+		for (int i = 0; i < indexes.size(); i++) {
+			valid.set(indexes.get(i), verified.get(i));
+		}
+
+		for (int i = 0; i < vectors.size(); i += VECTORS_PER_KEY) {
+			if (!valid.get(i)) {
+				throw new IllegalStateException("Generated signature failed to verify, vector " + (offset + i));
+			}
+		}
+
+		return valid;
+	}
+
+	private static void writeBlobs(BinaryVectorFile binary, String name, SpoolFile blobs) {
+		binary.beginBlobs(name);
+		SpoolFile.Reader reader = blobs.openReader();
+		for (byte[] blob = reader.next(); blob != null; blob = reader.next()) {
+			binary.writeBlob(blob);
+		}
+		binary.endTable();
+	}
+
+	private static class Vector {
+		private final byte[] message;
+		private final byte[] signature;
+		private final byte[] publicKeyBytes;
+		private final ECPublicKey publicKey;
+
+		public Vector(byte[] message, byte[] signature, byte[] publicKeyBytes, ECPublicKey publicKey) {
+			this.message = message;
+			this.signature = signature;
+			this.publicKeyBytes = publicKeyBytes;
+			this.publicKey = publicKey;
+		}
+	}
+}
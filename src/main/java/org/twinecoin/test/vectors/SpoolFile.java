@@ -0,0 +1,299 @@
+package org.twinecoin.test.vectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.twinecoin.test.util.Config;
+
+/**
+ * Temporary store for generated data which is written in a single pass and
+ * read back later.<br>
+ * <br>
+ * Data is held in a heap buffer until the buffer is full.  The buffer is
+ * then spilled to a temporary file and reused for later writes, so a spool
+ * uses a fixed amount of heap however much is written to it, and small
+ * spools never touch the disk.  Temporary files are created in the
+ * directory set by the "spool.dir" option, or in the system temporary
+ * directory, and are deleted by {@link #close()}.<br>
+ * <br>
+ * Data may be written as raw bytes, which can be read back from any
+ * position, or as length prefixed records, which are read back in order by
+ * a {@link Reader}.  A failure of the temporary file is fatal to the run,
+ * so it is thrown as an IllegalStateException.  Writes must be made by a
+ * single thread.  Once writing is complete, the spool may be read by
+ * several threads.
+ */
+public class SpoolFile {
+
+	private final static int BUFFER_SIZE = 1 << 18;
+
+	private final static int INITIAL_BUFFER_SIZE = 4096;
+
+	private final static int RECORD_HEADER_SIZE = 4;
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+	/**
+	 * The number of bytes in the buffer, which follow the bytes in the file
+	 */
+	private int buffered;
+
+	private long size;
+
+	private long records;
+
+	private File file;
+
+	private FileChannel channel;
+
+	/**
+	 * Gets the number of bytes written.
+	 *
+	 * @return the number of bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of records written by {@link #writeRecord(byte[])}.
+	 *
+	 * @return the number of records
+	 */
+	public long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * Writes all the remaining bytes of a buffer.
+	 *
+	 * @param src the buffer
+	 */
+	public void write(ByteBuffer src) {
+		while (src.hasRemaining()) {
+			int length = Math.min(src.remaining(), reserve());
+			src.get(buffer, buffered, length);
+			buffered += length;
+			size += length;
+		}
+	}
+
+	/**
+	 * Writes a range of bytes.
+	 *
+	 * @param src the bytes
+	 * @param off the index of the first byte
+	 * @param len the number of bytes
+	 */
+	public void write(byte[] src, int off, int len) {
+		int end = off + len;
+		while (off < end) {
+			int length = Math.min(end - off, reserve());
+			System.arraycopy(src, off, buffer, buffered, length);
+			off += length;
+			buffered += length;
+			size += length;
+		}
+	}
+
+	/**
+	 * Writes a record, which is read back as a whole by a {@link Reader}.
+	 *
+	 * @param record the record
+	 */
+	public void writeRecord(byte[] record) {
+		writeRecord(record, 0, record.length);
+	}
+
+	/**
+	 * Writes a range of bytes as a record.
+	 *
+	 * @param src the bytes
+	 * @param off the index of the first byte
+	 * @param len the number of bytes
+	 */
+	public void writeRecord(byte[] src, int off, int len) {
+		byte[] header = new byte[] {(byte) (len >>> 24), (byte) (len >>> 16), (byte) (len >>> 8), (byte) len};
+		write(header, 0, RECORD_HEADER_SIZE);
+		write(src, off, len);
+		records++;
+	}
+
+	/**
+	 * Reads bytes from a position, filling the remaining space in a buffer.
+	 *
+	 * @param position the position of the first byte
+	 * @param dst the buffer
+	 */
+	public void read(long position, ByteBuffer dst) {
+		if (position < 0 || position > size - dst.remaining()) {
+			throw new IndexOutOfBoundsException("Spool read out of range, " + position + " + " + dst.remaining() + " > " + size);
+		}
+		long fileSize = size - buffered;
+		if (position < fileSize) {
+			ByteBuffer slice = dst.duplicate();
+			slice.limit(slice.position() + (int) Math.min(slice.remaining(), fileSize - position));
+			try {
+				while (slice.hasRemaining()) {
+					position += channel.read(slice, position);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read spool file, " + file, e);
+			}
+			dst.position(slice.position());
+		}
+		if (dst.hasRemaining()) {
+			dst.put(buffer, (int) (position - fileSize), dst.remaining());
+		}
+	}
+
+	/**
+	 * Creates a reader for the records, starting with the first record.
+	 *
+	 * @return the reader
+	 */
+	public Reader openReader() {
+		return new Reader(0);
+	}
+
+	/**
+	 * Creates a reader for the records, starting at a position returned by
+	 * {@link Reader#getPosition()} or {@link #size()}.
+	 *
+	 * @param position the position of the first record
+	 * @return the reader
+	 */
+	public Reader openReader(long position) {
+		return new Reader(position);
+	}
+
+	/**
+	 * Deletes the temporary file, if any, and releases the buffer.
+	 */
+	public void close() {
+		buffer = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			channel = null;
+			file.delete();
+		}
+	}
+
+	/**
+	 * Makes space in the buffer by growing it or spilling it to the file.
+	 *
+	 * @return the free space in the buffer
+	 */
+	private int reserve() {
+		if (buffer == null) {
+			throw new IllegalStateException("Spool has been closed");
+		}
+		if (buffered == buffer.length) {
+			if (buffer.length < BUFFER_SIZE) {
+				buffer = Arrays.copyOf(buffer, Math.min(buffer.length << 1, BUFFER_SIZE));
+			} else {
+				spill();
+			}
+		}
+		return buffer.length - buffered;
+	}
+
+	private void spill() {
+		try {
+			if (channel == null) {
+				String dir = Config.getString("spool.dir", null);
+				file = File.createTempFile("twinetest", ".spool", dir == null ? null : new File(dir));
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			ByteBuffer data = ByteBuffer.wrap(buffer, 0, buffered);
+			long position = size - buffered;
+			while (data.hasRemaining()) {
+				position += channel.write(data, position);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write spool file, " + file, e);
+		}
+		buffered = 0;
+	}
+
+	/**
+	 * Sequential reader for the records in a spool.  Each reader has its
+	 * own read buffer, so several readers may be used concurrently.
+	 */
+	public class Reader {
+
+		private ByteBuffer chunk = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		/**
+		 * The spool position of the end of the chunk
+		 */
+		private long position;
+
+		private Reader(long position) {
+			this.position = position;
+			chunk.limit(0);
+		}
+
+		/**
+		 * Gets the position of the next record.
+		 *
+		 * @return the position
+		 */
+		public long getPosition() {
+			return position - chunk.remaining();
+		}
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @return the record, or null if all the records have been read
+		 */
+		public byte[] next() {
+			if (!fill(RECORD_HEADER_SIZE)) {
+				return null;
+			}
+			int length = chunk.getInt();
+			if (!fill(length)) {
+				throw new IllegalStateException("Truncated spool record");
+			}
+			byte[] record = new byte[length];
+			chunk.get(record);
+			return record;
+		}
+
+		/**
+		 * Ensures that the chunk holds at least a number of bytes.
+		 *
+		 * @return false if the end of the spool was reached first
+		 */
+		private boolean fill(int length) {
+			if (chunk.remaining() >= length) {
+				return true;
+			}
+			if (size - getPosition() < length) {
+				return false;
+			}
+			chunk.compact();
+			if (chunk.capacity() < length || chunk.capacity() < BUFFER_SIZE) {
+				int capacity = Math.max(length, Math.min(chunk.capacity() << 1, BUFFER_SIZE));
+				if (capacity > chunk.capacity()) {
+					chunk.flip();
+					chunk = ByteBuffer.allocate(capacity).put(chunk);
+				}
+			}
+			chunk.limit((int) Math.min(chunk.capacity(), chunk.position() + size - position));
+			int start = chunk.position();
+			read(position, chunk);
+			position += chunk.position() - start;
+			chunk.flip();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package org.twinecoin.test.vectors;
+
+import java.math.BigInteger;
+
+/**
+ * Fixed width 512-bit unsigned integer stored as eight 64-bit words.<br>
+ * <br>
+ * This gives a second implementation of the add, subtract, compare and
+ * shift operations, independent of BigInteger, which can be cross-checked
+ * against the BigInteger results.  The operations write to a result
+ * object and return the carry, borrow, overflow or underflow flag, so no
+ * objects are allocated.
+ */
+public final class U512 {
+
+	public final static int WORDS = 8;
+
+	public final static int BITS = WORDS * 64;
+
+	/**
+	 * lowMasks[n] has the lowest n bits set
+	 */
+	private final static long[] lowMasks;
+
+	/**
+	 * highMasks[n] has the highest n bits set
+	 */
+	private final static long[] highMasks;
+
+	static {
+		lowMasks = new long[64];
+		highMasks = new long[64];
+		for (int i = 1; i < 64; i++) {
+			lowMasks[i] = (1L << i) - 1;
+			highMasks[i] = -1L << (64 - i);
+		}
+	}
+
+	/**
+	 * The words of the value, least significant first
+	 */
+	final long[] words = new long[WORDS];
+
+	public U512() {
+	}
+
+	/**
+	 * Creates a U512 from a BigInteger.
+	 *
+	 * @param value the value, which must be in the range 0 to 2^512 - 1
+	 * @return the U512
+	 */
+	public static U512 valueOf(BigInteger value) {
+		if (value.signum() < 0 || value.bitLength() > BITS) {
+			throw new IllegalArgumentException("BigInteger out of range for U512, " + value.toString(16));
+		}
+		U512 u = new U512();
+		Convert.bigIntegerToWords(value, u.words);
+		return u;
+	}
+
+	public BigInteger toBigInteger() {
+		long[] bigEndian = new long[WORDS];
+		for (int i = 0; i < WORDS; i++) {
+			bigEndian[i] = words[WORDS - 1 - i];
+		}
+		return Convert.longToBigInteger(bigEndian);
+	}
+
+	public long getWord(int i) {
+		return words[i];
+	}
+
+	public boolean isZero() {
+		for (int i = 0; i < WORDS; i++) {
+			if (words[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes (a + b) mod 2^512.
+	 *
+	 * @return the carry, 0 or 1
+	 */
+	public static int add(U512 a, U512 b, U512 result) {
+		long carry = 0;
+		for (int i = 0; i < WORDS; i++) {
+			long x = a.words[i];
+			long sum = x + b.words[i];
+			long carryOut = lessThanUnsigned(sum, x) ? 1 : 0;
+			long sumCarry = sum + carry;
+			carryOut |= lessThanUnsigned(sumCarry, sum) ? 1 : 0;
+			result.words[i] = sumCarry;
+			carry = carryOut;
+		}
+		return (int) carry;
+	}
+
+	/**
+	 * Computes (a - b) mod 2^512.
+	 *
+	 * @return the borrow, 0 or 1
+	 */
+	public static int subtract(U512 a, U512 b, U512 result) {
+		long borrow = 0;
+		for (int i = 0; i < WORDS; i++) {
+			long x = a.words[i];
+			long y = b.words[i];
+			long diff = x - y;
+			long borrowOut = lessThanUnsigned(x, y) ? 1 : 0;
+			long diffBorrow = diff - borrow;
+			borrowOut |= lessThanUnsigned(diff, borrow) ? 1 : 0;
+			result.words[i] = diffBorrow;
+			borrow = borrowOut;
+		}
+		return (int) borrow;
+	}
+
+	/**
+	 * Compares two values.
+	 *
+	 * @return -1, 0 or 1 if a is less than, equal to or greater than b
+	 */
+	public static int compare(U512 a, U512 b) {
+		for (int i = WORDS - 1; i >= 0; i--) {
+			long x = a.words[i];
+			long y = b.words[i];
+			if (x != y) {
+				return lessThanUnsigned(x, y) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Computes (a << shift) mod 2^512.  The result may be the same object
+	 * as a.
+	 *
+	 * @param shift the shift, 0 to 511
+	 * @return 1 if any set bits were shifted out, otherwise 0
+	 */
+	public static int shiftLeft(U512 a, int shift, U512 result) {
+		checkShift(shift);
+		int wordShift = shift >> 6;
+		int bitShift = shift & 63;
+
+		long lost = 0;
+		for (int i = WORDS - wordShift; i < WORDS; i++) {
+			lost |= a.words[i];
+		}
+		lost |= a.words[WORDS - 1 - wordShift] & highMasks[bitShift];
+
+		for (int i = WORDS - 1; i >= 0; i--) {
+			int j = i - wordShift;
+			long word = j >= 0 ? a.words[j] << bitShift : 0;
+			if (bitShift != 0 && j > 0) {
+				word |= a.words[j - 1] >>> (64 - bitShift);
+			}
+			result.words[i] = word;
+		}
+		return lost == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Computes a >> shift.  The result may be the same object as a.
+	 *
+	 * @param shift the shift, 0 to 511
+	 * @return 1 if any set bits were shifted out, otherwise 0
+	 */
+	public static int shiftRight(U512 a, int shift, U512 result) {
+		checkShift(shift);
+		int wordShift = shift >> 6;
+		int bitShift = shift & 63;
+
+		long lost = 0;
+		for (int i = 0; i < wordShift; i++) {
+			lost |= a.words[i];
+		}
+		lost |= a.words[wordShift] & lowMasks[bitShift];
+
+		for (int i = 0; i < WORDS; i++) {
+			int j = i + wordShift;
+			long word = j < WORDS ? a.words[j] >>> bitShift : 0;
+			if (bitShift != 0 && j + 1 < WORDS) {
+				word |= a.words[j + 1] << (64 - bitShift);
+			}
+			result.words[i] = word;
+		}
+		return lost == 0 ? 0 : 1;
+	}
+
+	private static void checkShift(int shift) {
+		if (shift < 0 || shift >= BITS) {
+			throw new IllegalArgumentException("Shift out of range for U512, " + shift);
+		}
+	}
+
+	private static boolean lessThanUnsigned(long x, long y) {
+		return (x ^ Long.MIN_VALUE) < (y ^ Long.MIN_VALUE);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof U512)) {
+			return false;
+		}
+		return compare(this, (U512) o) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		long h = 0;
+		for (int i = 0; i < WORDS; i++) {
+			h = h * 31 + words[i];
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -1,18 +1,53 @@
 package org.twinecoin.test.vectors;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+
+import org.twinecoin.test.util.Config;
+import org.twinecoin.test.util.Parallel;
+import org.twinecoin.test.util.RunReport;
 
 /**
  * Class to generate test vectors for the tw_u512 class.<br>
  * <br>
  * This ensures that the test vectors are generated by a separate
- * implementation.
+ * implementation.<br>
+ * <br>
+ * The seed is set by the "u512.seed" option, the size of the edge value
+ * pool by the "u512.pool.size" option and the number of vectors in each
+ * section with a variable size by the options below.  The lengths sections
+ * have the given number of vectors for each of the 32 lengths.
+ * <ul>
+ * <li>u512.divzero.count - section 2, divide by zero</li>
+ * <li>u512.nearequal.count - section 4, almost equal</li>
+ * <li>u512.directed.count - section 6, directed vectors</li>
+ * <li>u512.random.count - section 7, purely random vectors</li>
+ * <li>u512.multiple.count - section 8, a is a multiple of b</li>
+ * <li>u512.halfwidth.count - section 9, random vectors with some half width</li>
+ * <li>u512.random.lengths.count - section 10, random vectors of various lengths</li>
+ * <li>u512.directed.lengths.count - section 11, directed vectors of various lengths</li>
+ * <li>u512.equal.count - section 12, a, b and c equal</li>
+ * </ul>
+ * The a, b and c values are held in spool files rather than lists, and
+ * the vectors are computed and written a block at a time, so the heap used
+ * does not depend on the number of vectors.
  */
 public class U512TestVectors {
 
+	/**
+	 * The generator version, which must be incremented when a change alters
+	 * the generated vectors.
+	 */
+	public final static int VERSION = 1;
+
+	public final static long SEED = 0x280e788cff6ec2bbL;
+
 	public final static BigInteger U512_ZERO = BigInteger.ZERO;
 	public final static BigInteger U512_HALF_MAX = BigInteger.ONE.shiftLeft(511);
 	public final static BigInteger U512_MAX = BigInteger.ONE.shiftLeft(512).subtract(BigInteger.ONE);
@@ -21,6 +56,29 @@ public class U512TestVectors {
 	public final static BigInteger U128_MAX = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
 	public final static BigInteger U64_MAX = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
 
+	/**
+	 * The number of vectors computed in parallel before their lines are
+	 * passed to the sink.
+	 */
+	private final static int BLOCK_SIZE = 256;
+
+	/**
+	 * The default number of entries in the pool of edge value integers
+	 */
+	private final static int POOL_SIZE = 500000;
+
+	/**
+	 * The default seed for the pool when it is drawn from its own substream
+	 */
+	private final static long POOL_SEED = 0x6a09e667f3bcc908L;
+
+	/**
+	 * The binary record sizes, matching the record structs written by
+	 * {@link #generateRecordStructs(VectorSink)}
+	 */
+	final static int RECORD_512X512 = 10 * 64 + 2 * 4 + 4 * 8;
+	final static int RECORD_512X64 = 3 * 64 + 8 + 3 * 8;
+
 	private final static long[] edgeValues;
 
 	static {
@@ -81,49 +139,92 @@ public class U512TestVectors {
 		}
 	}
 
-	public static List<String> generateVectors() {
-		Random r = getRandom();
-
-		List<List<BigInteger>> quad = generateBigIntegerList(r);
+	public static void generateVectors(VectorSink sink, BinaryVectorFile binary) {
+		RunReport.phase("values");
 
-		List<String> lines = new ArrayList<String>();
+		CheckpointRandom r = getRandom();
 
-		lines.addAll(generateU512BinaryOperatorVectors(quad.get(0), quad.get(1), quad.get(2), quad.get(3)));
-		lines.add("");
-		lines.addAll(generateU512xU64BinaryOperatorVectors(r, quad.get(0), quad.get(3)));
+		Values values = drawValues(r, new SectionCounts());
+		try {
+			generateU512BinaryOperatorVectors(sink, binary, values);
+			sink.add("");
+			generateU512xU64BinaryOperatorVectors(sink, binary, r, values);
+		} finally {
+			values.close();
+		}
+	}
 
-		return lines;
+	/**
+	 * Gets the seed, set by the "u512.seed" option.
+	 */
+	public static long getSeed() {
+		return Config.getLong("u512.seed", SEED);
 	}
 
-	public static Random getRandom() {
-		Random r = new Random();
+	/**
+	 * Gets the number of entries in the edge value pool, set by the
+	 * "u512.pool.size" option.
+	 */
+	public static int getPoolSize() {
+		int poolSize = Config.getInt("u512.pool.size", POOL_SIZE);
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("Option u512.pool.size must be at least 1, " + poolSize);
+		}
+		return poolSize;
+	}
 
+	public static CheckpointRandom getRandom() {
 		// Seed random so that results are consistent
-		r.setSeed(0x280e788cff6ec2bbL);
-		return r;
+		return new CheckpointRandom(getSeed());
 	}
 
-	public static List<List<BigInteger>> generateBigIntegerList(Random r) {
-		List<BigInteger> integerList = new ArrayList<BigInteger>();
+	/**
+	 * Gets the parameters which determine the generated vectors, for use
+	 * in output fingerprints.
+	 */
+	public static Map<String, String> getParameters() {
+		Map<String, String> parameters = new TreeMap<String, String>();
+		parameters.put("version", Integer.toString(VERSION));
+		parameters.put("seed", Long.toHexString(getSeed()));
+		String poolMode = Config.getString("u512.pool", "compat");
+		parameters.put("pool", poolMode);
+		parameters.put("pool.size", Integer.toString(getPoolSize()));
+		if (!poolMode.equals("compat")) {
+			parameters.put("pool.seed", Long.toHexString(Config.getLong("u512.pool.seed", POOL_SEED)));
+		}
+		new SectionCounts().addParameters(parameters);
+		return parameters;
+	}
 
-		long[] value = new long[8];
-		for (int i = 0; i < 500000; i++) {
-			for (int j = 0; j < value.length; j++) {
-				int option = r.nextInt(edgeValues.length);
-				if (r.nextInt(4) == 0) {
-					value[j] = r.nextLong();
-				} else {
-					value[j] = edgeValues[option];
-				}
-			}
-			integerList.add(Convert.longToBigInteger(value));
+	/**
+	 * Draws the a, b and c values for the vectors of every section.
+	 */
+	private static Values drawValues(CheckpointRandom r, SectionCounts counts) {
+		IntegerPool integerPool;
+
+		String poolMode = Config.getString("u512.pool", "compat");
+		if (poolMode.equals("compat")) {
+			integerPool = IntegerPool.compatible(r, getPoolSize(), edgeValues);
+		} else if (poolMode.equals("fast")) {
+			integerPool = IntegerPool.seeded(Config.getLong("u512.pool.seed", POOL_SEED), getPoolSize(), edgeValues);
+		} else {
+			throw new IllegalArgumentException("Option u512.pool must be compat or fast, " + poolMode);
 		}
 
-		List<BigInteger> aList = new ArrayList<BigInteger>();
-		List<BigInteger> bList = new ArrayList<BigInteger>();
-		List<BigInteger> sectionList = new ArrayList<BigInteger>();
+		Values values = new Values();
 
-		BigInteger sectionNumber = BigInteger.ONE;
+		try {
+			drawValues(r, counts, integerPool, values);
+		} catch (RuntimeException e) {
+			values.close();
+			throw e;
+		}
+
+		return values;
+	}
+
+	private static void drawValues(CheckpointRandom r, SectionCounts counts, IntegerPool integerPool, Values values) {
+		int sectionNumber = 1;
 
 		/**
 		 * Extremes
@@ -149,37 +250,31 @@ public class U512TestVectors {
 
 		for (int i = 0; i < extremes.length; i++) {
 			for (int j = 0; j < extremes.length; j++) {
-				aList.add(extremes[i]);
-				bList.add(extremes[j]);
-				sectionList.add(sectionNumber);
+				values.add(extremes[i], extremes[j], sectionNumber);
 			}
 		}
 
 		/**
 		 * Divide by zero
 		 */
-		sectionNumber = BigInteger.valueOf(2);
+		sectionNumber = 2;
 
-		for (int i = 0; i < 10; i++) {
-			aList.add(integerList.get(r.nextInt(integerList.size())));
-			bList.add(U512_ZERO);
-			sectionList.add(sectionNumber);
+		for (int i = 0; i < counts.divideByZero; i++) {
+			values.add(integerPool.get(r.nextInt(integerPool.size())), U512_ZERO, sectionNumber);
 		}
 
-		aList.add(U512_MAX);
-		bList.add(U512_ZERO);
-		sectionList.add(sectionNumber);
+		values.add(U512_MAX, U512_ZERO, sectionNumber);
 
 		/**
 		 * Single bits set
 		 */
-		sectionNumber = BigInteger.valueOf(3);
+		sectionNumber = 3;
 
 		for (int i = 0; i < 8; i++) {
 			for (int j = 0; j < 8; j++) {
-				aList.add(BigInteger.ONE.shiftLeft(i * 64 + r.nextInt(64)));
-				bList.add(BigInteger.ONE.shiftLeft(j * 64 + r.nextInt(64)));
-				sectionList.add(sectionNumber);
+				BigInteger a = BigInteger.ONE.shiftLeft(i * 64 + r.nextInt(64));
+				BigInteger b = BigInteger.ONE.shiftLeft(j * 64 + r.nextInt(64));
+				values.add(a, b, sectionNumber);
 			}
 		}
 
@@ -187,66 +282,58 @@ public class U512TestVectors {
 			for (int j = 0; j < 12; j++) {
 				for (int k = 0; k < (i == 0 ? 1 : 2); k++) {
 					for (int m = 0; m < (j == 0 ? 1 : 2); m++) {
-						aList.add(BigInteger.ONE.shiftLeft(i * 16 - k));
-						bList.add(BigInteger.ONE.shiftLeft(j * 16 - m));
-						sectionList.add(sectionNumber);
+						values.add(BigInteger.ONE.shiftLeft(i * 16 - k), BigInteger.ONE.shiftLeft(j * 16 - m), sectionNumber);
 					}
 				}
 			}
 		}
 
-		aList.add(U512_HALF_MAX);
-		bList.add(U512_HALF_MAX);
-		sectionList.add(sectionNumber);
+		values.add(U512_HALF_MAX, U512_HALF_MAX, sectionNumber);
 
 		/**
 		 * Almost equal
 		 */
-		sectionNumber = BigInteger.valueOf(4);
-		for (int i = 0; i < 10; i++) {
-			BigInteger v = integerList.get(r.nextInt(integerList.size()));
-			aList.add(v);
-			bList.add(v.add(BigInteger.valueOf(i - 5)));
-			sectionList.add(sectionNumber);
+		sectionNumber = 4;
+		for (int i = 0; i < counts.nearlyEqual; i++) {
+			BigInteger v = integerPool.get(r.nextInt(integerPool.size()));
+			values.add(v, v.add(BigInteger.valueOf((i % 10) - 5)).and(U512_MAX), sectionNumber);
 		}
 
 		/**
 		 * Single bit different
 		 */
-		sectionNumber = BigInteger.valueOf(5);
+		sectionNumber = 5;
 		for (int i = 0; i < 16; i++) {
 			BigInteger ref = new BigInteger(512, r);
-			aList.add(ref);
 			BigInteger bit = BigInteger.ONE.shiftLeft(r.nextInt(32) + (32 * i));
-			bList.add(ref.xor(bit));
-			sectionList.add(sectionNumber);
+			values.add(ref, ref.xor(bit), sectionNumber);
 		}
 
 		/**
 		 * Directed vectors
 		 */
-		sectionNumber = BigInteger.valueOf(6);
-		for (int i = 0; i < 500; i++) {
-			aList.add(integerList.get(r.nextInt(integerList.size())));
-			bList.add(integerList.get(r.nextInt(integerList.size())));
-			sectionList.add(sectionNumber);
+		sectionNumber = 6;
+		for (int i = 0; i < counts.directed; i++) {
+			BigInteger a = integerPool.get(r.nextInt(integerPool.size()));
+			BigInteger b = integerPool.get(r.nextInt(integerPool.size()));
+			values.add(a, b, sectionNumber);
 		}
 
 		/**
 		 * Purely random vectors
 		 */
-		sectionNumber = BigInteger.valueOf(7);
-		for (int i = 0; i < 500; i++) {
-			aList.add(new BigInteger(512, r));
-			bList.add(new BigInteger(512, r));
-			sectionList.add(sectionNumber);
+		sectionNumber = 7;
+		for (int i = 0; i < counts.random; i++) {
+			BigInteger a = new BigInteger(512, r);
+			BigInteger b = new BigInteger(512, r);
+			values.add(a, b, sectionNumber);
 		}
 
 		/**
 		 * Random vectors where a is a multiple of b
 		 */
-		sectionNumber = BigInteger.valueOf(8);
-		for (int i = 0; i < 500; i++) {
+		sectionNumber = 8;
+		for (int i = 0; i < counts.multiple; i++) {
 			BigInteger a = new BigInteger(512, r);
 			BigInteger b = new BigInteger(512, r);
 
@@ -266,233 +353,644 @@ public class U512TestVectors {
 
 			a = a.multiply(b);
 
-			aList.add(a);
-			bList.add(b);
-			sectionList.add(sectionNumber);
+			values.add(a, b, sectionNumber);
 		}
 
 		/**
 		 * Purely random vectors, with some half width
 		 */
-		sectionNumber = BigInteger.valueOf(9);
-		for (int i = 0; i < 500; i++) {
-			aList.add(new BigInteger(r.nextBoolean() ? 512 : 256, r));
-			bList.add(new BigInteger(r.nextBoolean() ? 512 : 256, r));
-			sectionList.add(sectionNumber);
+		sectionNumber = 9;
+		for (int i = 0; i < counts.halfWidth; i++) {
+			BigInteger a = new BigInteger(r.nextBoolean() ? 512 : 256, r);
+			BigInteger b = new BigInteger(r.nextBoolean() ? 512 : 256, r);
+			values.add(a, b, sectionNumber);
 		}
 
 
 		/**
 		 * Purely random vectors of various lengths
 		 */
-		sectionNumber = BigInteger.valueOf(10);
+		sectionNumber = 10;
 		for (int i = 1; i <= 32; i++) {
-			for (int j = 0; j < 20; j++) {
-				aList.add(new BigInteger(16 * i, r));
-				bList.add(new BigInteger(16 * i, r));
-				sectionList.add(sectionNumber);
+			for (int j = 0; j < counts.randomLengths; j++) {
+				BigInteger a = new BigInteger(16 * i, r);
+				BigInteger b = new BigInteger(16 * i, r);
+				values.add(a, b, sectionNumber);
 			}
 		}
 
 		/**
 		 * Directed vectors of various lengths
 		 */
-		sectionNumber = BigInteger.valueOf(11);
+		sectionNumber = 11;
 		for (int i = 1; i <= 32; i++) {
-			for (int j = 0; j < 20; j++) {
-				BigInteger a = integerList.get(r.nextInt(integerList.size()));
+			for (int j = 0; j < counts.directedLengths; j++) {
+				BigInteger a = integerPool.get(r.nextInt(integerPool.size()));
 				a = a.and(BigInteger.ONE.shiftLeft(16 * i).subtract(BigInteger.ONE));
-				BigInteger b = integerList.get(r.nextInt(integerList.size()));
+				BigInteger b = integerPool.get(r.nextInt(integerPool.size()));
 				b = b.and(BigInteger.ONE.shiftLeft(16 * (1 + r.nextInt(32))).subtract(BigInteger.ONE));
-				aList.add(a);
-				bList.add(b);
-				sectionList.add(sectionNumber);
+				values.add(a, b, sectionNumber);
 			}
 		}
 
-		List<BigInteger> cList = new ArrayList<BigInteger>();
-
-		int size = aList.size();
+		int size = values.size();
 		for (int i = 0; i < size; i++) {
 			if (r.nextBoolean()) {
-				cList.add(aList.get(r.nextInt(size)));
+				values.addC(values.getA(r.nextInt(size)));
 			} else {
-				cList.add(bList.get(r.nextInt(size)));
+				values.addC(values.getB(r.nextInt(size)));
 			}
 		}
 
-		sectionNumber = BigInteger.valueOf(12);
+		sectionNumber = 12;
 
-		for (int i = 0; i < 50; i++) {
+		for (int i = 0; i < counts.equal; i++) {
 			BigInteger a = new BigInteger(r.nextBoolean()? 128 : 512, r);
-			aList.add(a);
-			bList.add(a);
-			cList.add(a);
-			sectionList.add(sectionNumber);
-		}
-
-		List<List<BigInteger>> quad = new ArrayList<List<BigInteger>>(3);
-		quad.add(aList);
-		quad.add(bList);
-		quad.add(cList);
-		quad.add(sectionList);
-		return quad;
+			values.add(a, a, sectionNumber);
+			values.addC(a);
+		}
+	}
+
+	/**
+	 * Generates the C structs for the records of the binary u512 tables, with
+	 * a check that each struct has the size of the records written to the
+	 * binary file.  The fields are the same as the vector structs, but the
+	 * structs are named for the binary tables, so they can be declared
+	 * alongside the vector headers.
+	 *
+	 * @param sink the sink to receive the lines
+	 */
+	static void generateRecordStructs(VectorSink sink) {
+		sink.add("typedef struct _tw_vector_file_u512_512x512 {");
+		sink.add("  tw_u512 a;");
+		sink.add("  tw_u512 b;");
+		sink.add("  tw_u512 c;");
+		sink.add("  int a_equal_b;");
+		sink.add("  int a_comp_b;");
+		sink.add("  tw_u512 a_add_b;");
+		sink.add("  int a_add_b_carry;");
+		sink.add("  tw_u512 a_sub_b;");
+		sink.add("  int a_sub_b_borrow;");
+		sink.add("  tw_u512 a_mul_b;");
+		sink.add("  int a_mul_b_overflow;");
+		sink.add("  tw_u512 a_div_b;");
+		sink.add("  tw_u512 a_rem_b;");
+		sink.add("  int div_by_0;");
+		sink.add("  tw_u512 a_add_c_mod_b;");
+		sink.add("  tw_u512 a_pow_c_mod_b;");
+		sink.add("} tw_vector_file_u512_512x512;");
+		sink.add("");
+		sink.add("#define TW_VECTOR_FILE_U512_512X512_SIZE " + RECORD_512X512);
+		sink.add("TW_VECTOR_FILE_CHECK_SIZE(tw_vector_file_u512_512x512, TW_VECTOR_FILE_U512_512X512_SIZE);");
+		sink.add("");
+		sink.add("typedef struct _tw_vector_file_u512_512x64 {");
+		sink.add("  tw_u512 a;");
+		sink.add("  tw_u64 b;");
+		sink.add("  tw_u32 s;");
+		sink.add("  tw_u512 a_lshift;");
+		sink.add("  tw_u32 a_lshift_overflow;");
+		sink.add("  tw_u512 a_rshift;");
+		sink.add("  tw_u32 a_rshift_underflow;");
+		sink.add("} tw_vector_file_u512_512x64;");
+		sink.add("");
+		sink.add("#define TW_VECTOR_FILE_U512_512X64_SIZE " + RECORD_512X64);
+		sink.add("TW_VECTOR_FILE_CHECK_SIZE(tw_vector_file_u512_512x64, TW_VECTOR_FILE_U512_512X64_SIZE);");
+	}
+
+	/**
+	 * Generates the 512x512 vectors.  If the binary file is not null, the
+	 * vectors are also written to it as a table of fixed width records.
+	 */
+	private static void generateU512BinaryOperatorVectors(VectorSink sink, BinaryVectorFile binary, final Values values) {
+		sink.add("#include \"../../src/math/src/tw_uint.h\"");
+
+		sink.add("typedef struct _tw_u512_test_vector_512x512 {");
+		sink.add("  tw_u512 a;             // a");
+		sink.add("  tw_u512 b;             // b");
+		sink.add("  tw_u512 c;             // c");
+		sink.add("  int a_equal_b;         // a == b");
+		sink.add("  int a_comp_b;          // (a < b) ? -1 : (a == b) ? 0 : 1");
+		sink.add("  tw_u512 a_add_b;       // a + b");
+		sink.add("  int a_add_b_carry;     // Carry");
+		sink.add("  tw_u512 a_sub_b;       // a - b");
+		sink.add("  int a_sub_b_borrow;    // Borrow");
+		sink.add("  tw_u512 a_mul_b;       // a * b");
+		sink.add("  int a_mul_b_overflow;  // Overflow");
+		sink.add("  tw_u512 a_div_b;       // a / b");
+		sink.add("  tw_u512 a_rem_b;       // a / b");
+		sink.add("  int div_by_0;          // divide by 0");
+		sink.add("  tw_u512 a_add_c_mod_b; // (a + c) % b");
+		sink.add("  tw_u512 a_pow_c_mod_b; // pow(a, c) % b");
+		sink.add("} tw_u512_test_vector_512x512;");
+		sink.add("");
+
+		sink.add("tw_u512_test_vector_512x512 u512_test_vectors_512x512[] =");
+		sink.add("  {");
+
+		final int size = values.size();
+		final boolean crossCheck = Config.getBoolean("u512.crosscheck", true);
+		final ByteBuffer records = binary == null ? null : ByteBuffer.allocate(BLOCK_SIZE * RECORD_512X512).order(ByteOrder.LITTLE_ENDIAN);
+		final BigInteger[] aBlock = new BigInteger[BLOCK_SIZE];
+		final BigInteger[] bBlock = new BigInteger[BLOCK_SIZE];
+		final BigInteger[] cBlock = new BigInteger[BLOCK_SIZE];
+
+		if (binary != null) {
+			binary.beginRecords("u512_512x512", RECORD_512X512);
+		}
+
+		for (int start = 0; start < size; start += BLOCK_SIZE) {
+			final int blockStart = start;
+			int blockEnd = Math.min(size, start + BLOCK_SIZE);
+			RunReport.phase("compute");
+			values.read(start, blockEnd, aBlock, bBlock, cBlock);
+			final List<Result512x512> results = Parallel.map(start, blockEnd, new Parallel.IndexedTask<Result512x512>() {
+				@Override
+				public Result512x512 compute(int i) {
+					int j = i - blockStart;
+					return computeU512BinaryOperatorVector(i, aBlock[j], bBlock[j], cBlock[j], crossCheck);
+				}
+			});
+			RunReport.phase("format");
+			List<List<String>> block = Parallel.map(start, blockEnd, new Parallel.IndexedTask<List<String>>() {
+				@Override
+				public List<String> compute(int i) {
+					ListVectorSink vectorSink = new ListVectorSink(new ArrayList<String>(24));
+					ByteBuffer record = getRecord(records, i - blockStart, RECORD_512X512);
+					int j = i - blockStart;
+					int lastSection = i == 0 ? -1 : values.getSection(i - 1);
+					formatU512BinaryOperatorVector(vectorSink, record, i, size, aBlock[j], bBlock[j], cBlock[j], results.get(j), values.getSection(i), lastSection);
+					return vectorSink.getLines();
+				}
+			});
+			RunReport.phase("write");
+			addAll(sink, block);
+			writeRecords(binary, records, (blockEnd - blockStart) * RECORD_512X512);
+		}
+
+		if (binary != null) {
+			binary.endTable();
+		}
+
+		sink.add("  };");
+		sink.add("");
+		sink.add("#define U512_TEST_VECTORS_512X512_LENGTH " + size);
+
+		RunReport.addVectors(size);
 	}
 
-	public static List<String> generateU512BinaryOperatorVectors(List<BigInteger> aList, List<BigInteger> bList, 
-			                                                     List<BigInteger> cList, List<BigInteger> sectionList) {
-		List<String> lines = new ArrayList<String>();
-
-		lines.add("#include \"../../src/math/src/tw_uint.h\"");
-
-		lines.add("typedef struct _tw_u512_test_vector_512x512 {");
-		lines.add("  tw_u512 a;             // a");
-		lines.add("  tw_u512 b;             // b");
-		lines.add("  tw_u512 c;             // c");
-		lines.add("  int a_equal_b;         // a == b");
-		lines.add("  int a_comp_b;          // (a < b) ? -1 : (a == b) ? 0 : 1");
-		lines.add("  tw_u512 a_add_b;       // a + b");
-		lines.add("  int a_add_b_carry;     // Carry");
-		lines.add("  tw_u512 a_sub_b;       // a - b");
-		lines.add("  int a_sub_b_borrow;    // Borrow");
-		lines.add("  tw_u512 a_mul_b;       // a * b");
-		lines.add("  int a_mul_b_overflow;  // Overflow");
-		lines.add("  tw_u512 a_div_b;       // a / b");
-		lines.add("  tw_u512 a_rem_b;       // a / b");
-		lines.add("  int div_by_0;          // divide by 0");
-		lines.add("  tw_u512 a_add_c_mod_b; // (a + c) % b");
-		lines.add("  tw_u512 a_pow_c_mod_b; // pow(a, c) % b");
-		lines.add("} tw_u512_test_vector_512x512;");
-		lines.add("");
-
-		lines.add("tw_u512_test_vector_512x512 u512_test_vectors_512x512[] =");
-		lines.add("  {");
+	private static Result512x512 computeU512BinaryOperatorVector(int i, BigInteger a, BigInteger b, BigInteger c, boolean crossCheck) {
+		Result512x512 result = new Result512x512();
+
+		result.a = U512.valueOf(a);
+		result.b = U512.valueOf(b);
 
+		result.carry = U512.add(result.a, result.b, result.add);
+		result.borrow = U512.subtract(result.a, result.b, result.sub);
+		result.compare = U512.compare(result.a, result.b);
+
+		if (crossCheck) {
+			BigInteger addBig = a.add(b);
+			BigInteger subBig = a.subtract(b);
+			checkU512(i, "a + b", addBig.and(U512_MAX), result.add, addBig.compareTo(U512_MAX) > 0 ? 1 : 0, result.carry);
+			checkU512(i, "a - b", subBig.and(U512_MAX), result.sub, subBig.signum() < 0 ? 1 : 0, result.borrow);
+			checkU512(i, "compare", BigInteger.valueOf(a.compareTo(b)), BigInteger.valueOf(result.compare));
+		}
+
+		result.mul = a.multiply(b);
+		result.div = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.divide(b);
+		result.rem = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.remainder(b);
+		result.modAdd = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.add(c).remainder(b);
+		result.pow = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.modPow(c, b);
+
+		return result;
+	}
+
+	private static void formatU512BinaryOperatorVector(VectorSink sink, ByteBuffer record, int i, int size, BigInteger a, BigInteger b, BigInteger c,
+			                                           Result512x512 result, int section, int lastSection) {
 		String align = 
 				"                                                                                               " +
 				"                                                                                               ";
 
-		BigInteger lastSection = BigInteger.valueOf(-1);
+		U512 aU512 = result.a;
+		U512 bU512 = result.b;
+		U512 add = result.add;
+		int carry = result.carry;
+		U512 sub = result.sub;
+		int borrow = result.borrow;
+		int compare = result.compare;
+		BigInteger mul = result.mul;
+		BigInteger div = result.div;
+		BigInteger rem = result.rem;
+		BigInteger modAdd = result.modAdd;
+		BigInteger pow = result.pow;
+
+		if (lastSection != section) {
+			sink.add("    // <<<<<<<<<<<<<<<<< Section " + section + " >>>>>>>>>>>>>>>>>");
+		}
+		sink.add("    // Vector " + i);
+		sink.add("    // a = " + String.format("0x%0128x", a));
+		sink.add("    // b = " + String.format("0x%0128x", b));
+		sink.add("    // c = " + String.format("0x%0128x", c));
+		sink.add("    {");
+		sink.add("      " + Convert.bigIntegerToU512(a) + ",            // a");
+		sink.add("      " + Convert.bigIntegerToU512(b) + ",            // b");
+		sink.add("      " + Convert.bigIntegerToU512(c) + ",            // c");
+		sink.add("      " + (compare == 0 ? "1," : "0,") + align + "     // equals");
+		sink.add("      " + compare + "," + align + (compare >= 0 ? " " : "") + "    // compare");
+		sink.add("      " + Convert.u512ToString(add) + ",            // a + b");
+		sink.add("      " + carry + "," + align + "     // carry");
+		sink.add("      " + Convert.u512ToString(sub) + ",            // a - b");
+		sink.add("      " + borrow + "," + align + "     // borrow");
+		sink.add("      " + Convert.bigIntegerToU512(mul) + ",            // a * b");
+		sink.add("      " + (mul.compareTo(U512_MAX) > 0 ? 1 : 0) + "," + align + "     // overflow");
+		sink.add("      " + Convert.bigIntegerToU512(div) + ",            // a / b");
+		sink.add("      " + Convert.bigIntegerToU512(rem) + ",            // a % b");
+		sink.add("      " + (b.compareTo(BigInteger.ZERO) == 0 ? 1 : 0) + "," + align + "     // div_by_zero");
+		sink.add("      " + Convert.bigIntegerToU512(modAdd) + ",            // (a + c) mod b");
+		sink.add("      " + Convert.bigIntegerToU512(pow) + ",            // pow(a,  c) mod b");
+		sink.add("    " + ((i == size - 1) ? "}" : "},"));
+
+		if (record != null) {
+			BinaryVectorFile.putU512(record, aU512);
+			BinaryVectorFile.putU512(record, bU512);
+			BinaryVectorFile.putU512(record, c);
+			record.putInt(compare == 0 ? 1 : 0);
+			record.putInt(compare);
+			BinaryVectorFile.putU512(record, add);
+			BinaryVectorFile.putPaddedInt(record, carry);
+			BinaryVectorFile.putU512(record, sub);
+			BinaryVectorFile.putPaddedInt(record, borrow);
+			BinaryVectorFile.putU512(record, mul);
+			BinaryVectorFile.putPaddedInt(record, mul.compareTo(U512_MAX) > 0 ? 1 : 0);
+			BinaryVectorFile.putU512(record, div);
+			BinaryVectorFile.putU512(record, rem);
+			BinaryVectorFile.putPaddedInt(record, b.signum() == 0 ? 1 : 0);
+			BinaryVectorFile.putU512(record, modAdd);
+			BinaryVectorFile.putU512(record, pow);
+		}
+	}
 
-		for (int i = 0; i < aList.size(); i++) {
-			BigInteger a = aList.get(i);
-			BigInteger b = bList.get(i);
-			BigInteger c = cList.get(i);
+	/**
+	 * Generates the 512x64 vectors.  If the binary file is not null, the
+	 * vectors are also written to it as a table of fixed width records.
+	 */
+	private static void generateU512xU64BinaryOperatorVectors(VectorSink sink, BinaryVectorFile binary, Random r, final Values values) {
+		sink.add("typedef struct _tw_u512_test_vector_512x64 {");
+		sink.add("  tw_u512 a;                // a");
+		sink.add("  tw_u64 b;                 // b");
+		sink.add("  tw_u32 s;                 // shift (32-bit words)");
+		sink.add("  tw_u512 a_lshift;         // a << (s & 511)");
+		sink.add("  tw_u32 a_lshift_overflow; // left shift overflow");
+		sink.add("  tw_u512 a_rshift;         // a >> (s & 511)");
+		sink.add("  tw_u32 a_rshift_underflow;// right shift underflow");
+		sink.add("} tw_u512_test_vector_512x64;");
+		sink.add("");
+
+		sink.add("tw_u512_test_vector_512x64 u512_test_vectors_512x64[] =");
+		sink.add("  {");
+
+		final int size = values.size();
+		final boolean crossCheck = Config.getBoolean("u512.crosscheck", true);
+
+		final BigInteger[] aBlock = new BigInteger[BLOCK_SIZE];
+		final long[] bLongs = new long[BLOCK_SIZE];
+		final int[] shifts = new int[BLOCK_SIZE];
+
+		final ByteBuffer records = binary == null ? null : ByteBuffer.allocate(BLOCK_SIZE * RECORD_512X64).order(ByteOrder.LITTLE_ENDIAN);
+
+		if (binary != null) {
+			binary.beginRecords("u512_512x64", RECORD_512X64);
+		}
 
-			BigInteger section = sectionList.get(i);
+		for (int start = 0; start < size; start += BLOCK_SIZE) {
+			final int blockStart = start;
+			int blockEnd = Math.min(size, start + BLOCK_SIZE);
 
-			BigInteger add = a.add(b);
-			BigInteger sub = a.subtract(b);
-			BigInteger mul = a.multiply(b);
-			BigInteger div = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.divide(b);
-			BigInteger rem = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.remainder(b);
-			BigInteger modAdd = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.add(c).remainder(b);
-			BigInteger pow = BigInteger.ZERO.equals(b) ? BigInteger.ZERO : a.modPow(c, b);
+			// The random draws for the block are made before the block is
+			// split between threads, in vector order, so that the output does
+			// not depend on the number of threads
+			RunReport.phase("values");
 
-			if (!lastSection.equals(section)) {
-				lastSection = section;
-				lines.add("    // <<<<<<<<<<<<<<<<< Section " + section + " >>>>>>>>>>>>>>>>>");
+			for (int j = 0; j < blockEnd - blockStart; j++) {
+				if (r.nextBoolean()) {
+					bLongs[j] = r.nextLong();
+				} else {
+					bLongs[j] = edgeValues[r.nextInt(edgeValues.length)];
+				}
+
+				shifts[j] = r.nextInt();
 			}
-			lines.add("    // Vector " + i);
-			lines.add("    // a = " + String.format("0x%0128x", a));
-			lines.add("    // b = " + String.format("0x%0128x", b));
-			lines.add("    // c = " + String.format("0x%0128x", c));
-			lines.add("    {");
-			lines.add("      " + Convert.bigIntegerToU512(a) + ",            // a");
-			lines.add("      " + Convert.bigIntegerToU512(b) + ",            // b");
-			lines.add("      " + Convert.bigIntegerToU512(c) + ",            // c");
-			lines.add("      " + (a.equals(b) ? "1," : "0,") + align + "     // equals");
-			lines.add("      " + a.compareTo(b) + "," + align + (a.compareTo(b) >= 0 ? " " : "") + "    // compare");
-			lines.add("      " + Convert.bigIntegerToU512(add) + ",            // a + b");
-			lines.add("      " + (add.compareTo(U512_MAX) > 0 ? 1 : 0) + "," + align + "     // carry");
-			lines.add("      " + Convert.bigIntegerToU512(sub) + ",            // a - b");
-			lines.add("      " + (sub.compareTo(BigInteger.ZERO) < 0 ? 1 : 0) + "," + align + "     // borrow");
-			lines.add("      " + Convert.bigIntegerToU512(mul) + ",            // a * b");
-			lines.add("      " + (mul.compareTo(U512_MAX) > 0 ? 1 : 0) + "," + align + "     // overflow");
-			lines.add("      " + Convert.bigIntegerToU512(div) + ",            // a / b");
-			lines.add("      " + Convert.bigIntegerToU512(rem) + ",            // a % b");
-			lines.add("      " + (b.compareTo(BigInteger.ZERO) == 0 ? 1 : 0) + "," + align + "     // div_by_zero");
-			lines.add("      " + Convert.bigIntegerToU512(modAdd) + ",            // (a + c) mod b");
-			lines.add("      " + Convert.bigIntegerToU512(pow) + ",            // pow(a,  c) mod b");
-			lines.add("    " + ((i == aList.size() - 1) ? "}" : "},"));
-		}
-		lines.add("  };");
-		lines.add("");
-		lines.add("#define U512_TEST_VECTORS_512X512_LENGTH " + aList.size());
-
-		return lines;
+
+			RunReport.phase("compute");
+			values.read(start, blockEnd, aBlock, null, null);
+			final List<Result512x64> results = Parallel.map(start, blockEnd, new Parallel.IndexedTask<Result512x64>() {
+				@Override
+				public Result512x64 compute(int i) {
+					int j = i - blockStart;
+					return computeU512xU64BinaryOperatorVector(i, aBlock[j], shifts[j], crossCheck);
+				}
+			});
+			RunReport.phase("format");
+			List<List<String>> block = Parallel.map(start, blockEnd, new Parallel.IndexedTask<List<String>>() {
+				@Override
+				public List<String> compute(int i) {
+					ListVectorSink vectorSink = new ListVectorSink(new ArrayList<String>(12));
+					ByteBuffer record = getRecord(records, i - blockStart, RECORD_512X64);
+					int j = i - blockStart;
+					int lastSection = i == 0 ? -1 : values.getSection(i - 1);
+					formatU512xU64BinaryOperatorVector(vectorSink, record, i, size, aBlock[j], bLongs[j], shifts[j], results.get(j), values.getSection(i), lastSection);
+					return vectorSink.getLines();
+				}
+			});
+			RunReport.phase("write");
+			addAll(sink, block);
+			writeRecords(binary, records, (blockEnd - blockStart) * RECORD_512X64);
+		}
+
+		if (binary != null) {
+			binary.endTable();
+		}
+
+		sink.add("  };");
+		sink.add("");
+		sink.add("#define U512_TEST_VECTORS_512X64_LENGTH " + size);
+
+		RunReport.addVectors(size);
 	}
 
-	public static List<String> generateU512xU64BinaryOperatorVectors(Random r, List<BigInteger> aList, List<BigInteger> sectionList) {
-		List<String> lines = new ArrayList<String>();
+	private static Result512x64 computeU512xU64BinaryOperatorVector(int i, BigInteger a, int s, boolean crossCheck) {
+		Result512x64 result = new Result512x64();
 
-		lines.add("typedef struct _tw_u512_test_vector_512x64 {");
-		lines.add("  tw_u512 a;                // a");
-		lines.add("  tw_u64 b;                 // b");
-		lines.add("  tw_u32 s;                 // shift (32-bit words)");
-		lines.add("  tw_u512 a_lshift;         // a << (s & 511)");
-		lines.add("  tw_u32 a_lshift_overflow; // left shift overflow");
-		lines.add("  tw_u512 a_rshift;         // a >> (s & 511)");
-		lines.add("  tw_u32 a_rshift_underflow;// right shift underflow");
-		lines.add("} tw_u512_test_vector_512x64;");
-		lines.add("");
+		int bitShift = s & 511;
 
-		lines.add("tw_u512_test_vector_512x64 u512_test_vectors_512x64[] =");
-		lines.add("  {");
+		result.a = U512.valueOf(a);
 
+		result.leftShiftOverflow = U512.shiftLeft(result.a, bitShift, result.leftShift);
+		result.rightShiftUnderflow = U512.shiftRight(result.a, bitShift, result.rightShift);
+
+		if (crossCheck) {
+			BigInteger leftShiftBig = a.shiftLeft(bitShift);
+			boolean underflowBig = !a.and(BigInteger.ONE.shiftLeft(bitShift).subtract(BigInteger.ONE)).equals(BigInteger.ZERO);
+			checkU512(i, "a << s", leftShiftBig.and(U512_MAX), result.leftShift, leftShiftBig.compareTo(U512_MAX) > 0 ? 1 : 0, result.leftShiftOverflow);
+			checkU512(i, "a >> s", a.shiftRight(bitShift), result.rightShift, underflowBig ? 1 : 0, result.rightShiftUnderflow);
+		}
+
+		return result;
+	}
+
+	private static void formatU512xU64BinaryOperatorVector(VectorSink sink, ByteBuffer record, int i, int size, BigInteger a, long bLong, int s,
+			                                               Result512x64 result, int section, int lastSection) {
 		String align = 
 				"                                                                                " +
 				"                                                                                ";
 
-		BigInteger lastSection = BigInteger.valueOf(-1);
+		BigInteger b = BigInteger.valueOf(bLong).and(U64_MAX);
 
-		for (int i = 0; i < aList.size(); i++) {
-			BigInteger a = aList.get(i);
-			BigInteger section = sectionList.get(i);
-			long bLong;
+		U512 aU512 = result.a;
+		U512 aLeftShift = result.leftShift;
+		int leftShiftOverflow = result.leftShiftOverflow;
+		U512 aRightShift = result.rightShift;
+		int rightShiftUnderflow = result.rightShiftUnderflow;
 
-			if (r.nextBoolean()) {
-				bLong = r.nextLong();
-			} else {
-				bLong = edgeValues[r.nextInt(edgeValues.length)];
+		if (lastSection != section) {
+			sink.add("    // <<<<<<<<<<<<<<<<< Section " + section + " >>>>>>>>>>>>>>>>>");
+		}
+		sink.add("    // Vector " + i);
+		sink.add("    // a = " + String.format("0x%0128x", a));
+		sink.add("    // b = " + String.format("0x%016x", b));
+		sink.add("    {");
+		sink.add("      " + Convert.bigIntegerToU512(a) + ",            // a");
+		sink.add("      " + String.format("0x%016xULL", b) + "," + align + "               // b");
+		sink.add("      " + String.format("0x%08xU", s) + "," + align + "                         // s");
+		sink.add("      " + Convert.u512ToString(aLeftShift) + ",            // a_lshift");
+		sink.add("      " + String.format("0x%08xU", leftShiftOverflow) + "," + align + "                         // a_lshift_overflow");
+		sink.add("      " + Convert.u512ToString(aRightShift) + ",            // a_rshift");
+		sink.add("      " + String.format("0x%08xU", rightShiftUnderflow) + "," + align + "                         // a_rshift_underflow");
+		sink.add("    " + ((i == size - 1) ? "}" : "},"));
+
+		if (record != null) {
+			BinaryVectorFile.putU512(record, aU512);
+			record.putLong(bLong);
+			BinaryVectorFile.putPaddedInt(record, s);
+			BinaryVectorFile.putU512(record, aLeftShift);
+			BinaryVectorFile.putPaddedInt(record, leftShiftOverflow);
+			BinaryVectorFile.putU512(record, aRightShift);
+			BinaryVectorFile.putPaddedInt(record, rightShiftUnderflow);
+		}
+	}
+
+	private static void checkU512(int i, String operation, BigInteger expected, U512 actual, int expectedFlag, int actualFlag) {
+		checkU512(i, operation, expected, actual.toBigInteger());
+		checkU512(i, operation + " flag", BigInteger.valueOf(expectedFlag), BigInteger.valueOf(actualFlag));
+	}
+
+	private static void checkU512(int i, String operation, BigInteger expected, BigInteger actual) {
+		if (!expected.equals(actual)) {
+			throw new IllegalStateException("U512 and BigInteger results differ for " + operation + " in vector " + i +
+					", " + expected.toString(16) + " != " + actual.toString(16));
+		}
+	}
+
+	/**
+	 * Gets the slice of a block buffer for a record, or null if binary
+	 * output is disabled.
+	 */
+	private static ByteBuffer getRecord(ByteBuffer records, int index, int recordSize) {
+		if (records == null) {
+			return null;
+		}
+		ByteBuffer record = records.duplicate();
+		record.order(ByteOrder.LITTLE_ENDIAN);
+		record.limit((index + 1) * recordSize);
+		record.position(index * recordSize);
+		return record;
+	}
+
+	private static void writeRecords(BinaryVectorFile binary, ByteBuffer records, int length) {
+		if (binary == null) {
+			return;
+		}
+		records.limit(length);
+		records.position(0);
+		binary.writeRecords(records);
+		records.clear();
+	}
+
+	private static void addAll(VectorSink sink, List<List<String>> block) {
+		for (List<String> vectorLines : block) {
+			for (String line : vectorLines) {
+				sink.add(line);
+			}
+		}
+	}
+
+	/**
+	 * The results of the operations for a 512x512 vector.
+	 */
+	private static class Result512x512 {
+		private U512 a;
+		private U512 b;
+		private final U512 add = new U512();
+		private int carry;
+		private final U512 sub = new U512();
+		private int borrow;
+		private int compare;
+		private BigInteger mul;
+		private BigInteger div;
+		private BigInteger rem;
+		private BigInteger modAdd;
+		private BigInteger pow;
+	}
+
+	/**
+	 * The results of the shifts for a 512x64 vector.
+	 */
+	private static class Result512x64 {
+		private U512 a;
+		private final U512 leftShift = new U512();
+		private int leftShiftOverflow;
+		private final U512 rightShift = new U512();
+		private int rightShiftUnderflow;
+	}
+
+	/**
+	 * The number of vectors in each section with a variable size.
+	 */
+	private static class SectionCounts {
+		private final int divideByZero = Config.getCount("u512.divzero.count", 10);
+		private final int nearlyEqual = Config.getCount("u512.nearequal.count", 10);
+		private final int directed = Config.getCount("u512.directed.count", 500);
+		private final int random = Config.getCount("u512.random.count", 500);
+		private final int multiple = Config.getCount("u512.multiple.count", 500);
+		private final int halfWidth = Config.getCount("u512.halfwidth.count", 500);
+		private final int randomLengths = Config.getCount("u512.random.lengths.count", 20);
+		private final int directedLengths = Config.getCount("u512.directed.lengths.count", 20);
+		private final int equal = Config.getCount("u512.equal.count", 50);
+
+		private void addParameters(Map<String, String> parameters) {
+			parameters.put("divzero.count", Integer.toString(divideByZero));
+			parameters.put("nearequal.count", Integer.toString(nearlyEqual));
+			parameters.put("directed.count", Integer.toString(directed));
+			parameters.put("random.count", Integer.toString(random));
+			parameters.put("multiple.count", Integer.toString(multiple));
+			parameters.put("halfwidth.count", Integer.toString(halfWidth));
+			parameters.put("random.lengths.count", Integer.toString(randomLengths));
+			parameters.put("directed.lengths.count", Integer.toString(directedLengths));
+			parameters.put("equal.count", Integer.toString(equal));
+		}
+	}
+
+	/**
+	 * The a, b and c values and section numbers of the vectors.<br>
+	 * <br>
+	 * The values are held in spool files as eight little endian 64-bit
+	 * words.  The a and b values are held in one spool and the c values in
+	 * another, since the c values are drawn from the a and b values once
+	 * they are complete.  Values are read back for random c draws and a
+	 * block at a time for the vectors.
+	 */
+	private static class Values {
+		private final static int VALUE_SIZE = U512.WORDS * 8;
+
+		private final SpoolFile abSpool = new SpoolFile();
+		private final SpoolFile cSpool = new SpoolFile();
+
+		/**
+		 * The first index and the number of each section, in index order
+		 */
+		private final List<int[]> sections = new ArrayList<int[]>();
+
+		private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE * 2 * VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		private int size;
+
+		public int size() {
+			return size;
+		}
+
+		public void add(BigInteger a, BigInteger b, int section) {
+			if (sections.isEmpty() || sections.get(sections.size() - 1)[1] != section) {
+				sections.add(new int[] {size, section});
 			}
+			buffer.clear();
+			BinaryVectorFile.putU512(buffer, a);
+			BinaryVectorFile.putU512(buffer, b);
+			buffer.flip();
+			abSpool.write(buffer);
+			size++;
+		}
 
-			BigInteger b = BigInteger.valueOf(bLong).and(U64_MAX);
+		public void addC(BigInteger c) {
+			buffer.clear();
+			BinaryVectorFile.putU512(buffer, c);
+			buffer.flip();
+			cSpool.write(buffer);
+		}
 
-			int s = r.nextInt();
+		public int getSection(int index) {
+			for (int i = sections.size() - 1; i >= 0; i--) {
+				if (sections.get(i)[0] <= index) {
+					return sections.get(i)[1];
+				}
+			}
+			throw new IndexOutOfBoundsException("Vector index out of range, " + index);
+		}
 
-			int bitShift = s & 511;
+		public BigInteger getA(int index) {
+			return readValue(abSpool, (long) index * 2 * VALUE_SIZE);
+		}
 
-			BigInteger aLeftShift = a.shiftLeft(bitShift);
+		public BigInteger getB(int index) {
+			return readValue(abSpool, ((long) index * 2 + 1) * VALUE_SIZE);
+		}
 
-			int leftShiftOverflow = aLeftShift.compareTo(U512_MAX) > 0 ? 1 : 0;
+		/**
+		 * Reads the values for a block of vectors.  The c values are only read
+		 * if c is not null.
+		 */
+		public void read(int start, int end, BigInteger[] a, BigInteger[] b, BigInteger[] c) {
+			buffer.clear();
+			buffer.limit((end - start) * 2 * VALUE_SIZE);
+			abSpool.read((long) start * 2 * VALUE_SIZE, buffer);
+			buffer.flip();
+			for (int i = 0; i < end - start; i++) {
+				a[i] = getValue(buffer);
+				BigInteger value = getValue(buffer);
+				if (b != null) {
+					b[i] = value;
+				}
+			}
+			if (c == null) {
+				return;
+			}
+			buffer.clear();
+			buffer.limit((end - start) * VALUE_SIZE);
+			cSpool.read((long) start * VALUE_SIZE, buffer);
+			buffer.flip();
+			for (int i = 0; i < end - start; i++) {
+				c[i] = getValue(buffer);
+			}
+		}
 
-			BigInteger aRightShift = a.shiftRight(bitShift);
+		public void close() {
+			abSpool.close();
+			cSpool.close();
+		}
 
-			int rightShiftUnderflow = a.and(BigInteger.ONE.shiftLeft(bitShift).subtract(BigInteger.ONE)).equals(BigInteger.ZERO) ?
-					                  0 : 1;
+		private BigInteger readValue(SpoolFile spool, long position) {
+			buffer.clear();
+			buffer.limit(VALUE_SIZE);
+			spool.read(position, buffer);
+			buffer.flip();
+			return getValue(buffer);
+		}
 
-			if (!lastSection.equals(section)) {
-				lastSection = section;
-				lines.add("    // <<<<<<<<<<<<<<<<< Section " + section + " >>>>>>>>>>>>>>>>>");
+		private static BigInteger getValue(ByteBuffer buf) {
+			U512 value = new U512();
+			for (int i = 0; i < U512.WORDS; i++) {
+				value.words[i] = buf.getLong();
 			}
-			lines.add("    // Vector " + i);
-			lines.add("    // a = " + String.format("0x%0128x", a));
-			lines.add("    // b = " + String.format("0x%016x", b));
-			lines.add("    {");
-			lines.add("      " + Convert.bigIntegerToU512(a) + ",            // a");
-			lines.add("      " + String.format("0x%016xULL", b) + "," + align + "               // b");
-			lines.add("      " + String.format("0x%08xU", s) + "," + align + "                         // s");
-			lines.add("      " + Convert.bigIntegerToU512(aLeftShift) + ",            // a_lshift");
-			lines.add("      " + String.format("0x%08xU", leftShiftOverflow) + "," + align + "                         // a_lshift_overflow");
-			lines.add("      " + Convert.bigIntegerToU512(aRightShift) + ",            // a_rshift");
-			lines.add("      " + String.format("0x%08xU", rightShiftUnderflow) + "," + align + "                         // a_rshift_underflow");
-			lines.add("    " + ((i == aList.size() - 1) ? "}" : "},"));
-		}
-		lines.add("  };");
-		lines.add("");
-		lines.add("#define U512_TEST_VECTORS_512X64_LENGTH " + aList.size());
-
-		return lines;
+			return value.toBigInteger();
+		}
 	}
 }
@@ -0,0 +1,15 @@
+package org.twinecoin.test.vectors;
+
+/**
+ * A source of test vector lines which are written to a sink.
+ */
+public interface VectorGenerator {
+
+	/**
+	 * Generates the vectors and adds the lines to the sink in output order.
+	 *
+	 * @param sink the sink to receive the lines
+	 * @param binary the binary vector file, or null if binary output is disabled
+	 */
+	public void generateVectors(VectorSink sink, BinaryVectorFile binary);
+}
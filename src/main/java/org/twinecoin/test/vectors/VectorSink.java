@@ -0,0 +1,17 @@
+package org.twinecoin.test.vectors;
+
+/**
+ * Destination for the lines of a generated test vector file.<br>
+ * <br>
+ * Generators add each line to the sink as soon as it is produced, so the
+ * formatted output never has to be held in memory as a whole.
+ */
+public interface VectorSink {
+
+	/**
+	 * Adds a line to the output.  The line must not include a line terminator.
+	 *
+	 * @param line the line to add
+	 */
+	public void add(String line);
+}
@@ -0,0 +1,75 @@
+package org.twinecoin.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutputCacheTest {
+
+	private final static String FINGERPRINT = "0123456789abcdef";
+
+	private final static List<String> FILENAMES = Arrays.asList("a.h", "b.h");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void write(File file, String contents) throws IOException {
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static byte[] read(File file) throws IOException {
+		return Files.readAllBytes(file.toPath());
+	}
+
+	private OutputCache createEntry() throws IOException {
+		File generated = folder.newFolder("generated");
+		write(new File(generated, "a.h"), "header a");
+		write(new File(generated, "b.h"), "header b");
+		OutputCache cache = new OutputCache(folder.newFolder("cache"));
+		cache.store(FINGERPRINT, generated, FILENAMES);
+		return cache;
+	}
+
+	@Test
+	public void testRestore() throws IOException {
+		OutputCache cache = createEntry();
+		File out = new File(folder.getRoot(), "out");
+		assertTrue(cache.restore(FINGERPRINT, out, FILENAMES));
+		assertArrayEquals("header a".getBytes(StandardCharsets.US_ASCII), read(new File(out, "a.h")));
+		assertArrayEquals("header b".getBytes(StandardCharsets.US_ASCII), read(new File(out, "b.h")));
+		assertEquals(2, out.list().length);
+	}
+
+	@Test
+	public void testMismatchLeavesOutputUntouched() throws IOException {
+		OutputCache cache = createEntry();
+		write(new File(new File(folder.getRoot(), "cache/" + FINGERPRINT), "b.h"), "corrupted");
+
+		File out = folder.newFolder("out");
+		write(new File(out, "a.h"), "previous a");
+		write(new File(out, "b.h"), "previous b");
+
+		assertFalse(cache.restore(FINGERPRINT, out, FILENAMES));
+		assertArrayEquals("previous a".getBytes(StandardCharsets.US_ASCII), read(new File(out, "a.h")));
+		assertArrayEquals("previous b".getBytes(StandardCharsets.US_ASCII), read(new File(out, "b.h")));
+		assertEquals(2, out.list().length);
+	}
+
+	@Test
+	public void testMissingEntry() throws IOException {
+		OutputCache cache = new OutputCache(folder.newFolder("cache"));
+		assertFalse(cache.restore(FINGERPRINT, folder.newFolder("out"), FILENAMES));
+	}
+}
@@ -0,0 +1,150 @@
+package org.twinecoin.test.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSigner;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.twinecoin.test.vectors.U512;
+
+public class EmbeddedJarClassLoaderTest {
+
+	private final static String PROVIDER_NAME = BouncyCastleProvider.class.getName();
+
+	private final static String LICENSE_NAME = "org/bouncycastle/LICENSE.class";
+
+	private static URL location;
+
+	private static EmbeddedJarClassLoader loader;
+
+	/**
+	 * Creates a loader for the provider jar on the test class path.
+	 */
+	@BeforeClass
+	public static void createLoader() throws Exception {
+		location = BouncyCastleProvider.class.getProtectionDomain().getCodeSource().getLocation();
+		byte[] jar = Files.readAllBytes(new File(location.toURI()).toPath());
+		String[] sharedClasses = new String[] {HexCodec.class.getName()};
+		loader = new EmbeddedJarClassLoader(jar, location, "org.twinecoin.test", sharedClasses, EmbeddedJarClassLoaderTest.class.getClassLoader());
+	}
+
+	@Test
+	public void testJarClass() throws Exception {
+		Class<?> provider = loader.loadClass(PROVIDER_NAME);
+		assertSame(loader, provider.getClassLoader());
+		assertTrue(provider != BouncyCastleProvider.class);
+		assertSame(provider, loader.loadClass(PROVIDER_NAME));
+
+		Package p = provider.getPackage();
+		assertNotNull(p);
+		assertEquals("org.bouncycastle.jce.provider", p.getName());
+	}
+
+	@Test
+	public void testSigners() throws Exception {
+		Class<?> provider = loader.loadClass(PROVIDER_NAME);
+		assertEquals(location, provider.getProtectionDomain().getCodeSource().getLocation());
+		CodeSigner[] signers = provider.getProtectionDomain().getCodeSource().getCodeSigners();
+		assertNotNull(signers);
+		assertEquals(2, signers.length);
+		for (CodeSigner signer : signers) {
+			assertTrue(signer.getSignerCertPath().getCertificates().size() > 0);
+		}
+	}
+
+	@Test
+	public void testApplicationClass() throws Exception {
+		Class<?> u512 = loader.loadClass(U512.class.getName());
+		assertSame(loader, u512.getClassLoader());
+		assertTrue(u512 != U512.class);
+		assertSame(EmbeddedJarClassLoader.class.getProtectionDomain(), u512.getProtectionDomain());
+	}
+
+	@Test
+	public void testSharedClass() throws Exception {
+		assertSame(HexCodec.class, loader.loadClass(HexCodec.class.getName()));
+		assertSame(String.class, loader.loadClass(String.class.getName()));
+	}
+
+	@Test
+	public void testResources() throws Exception {
+		byte[] expected = read(BouncyCastleProvider.class.getClassLoader().getResourceAsStream(LICENSE_NAME));
+
+		assertArrayEquals(expected, read(loader.getResourceAsStream(LICENSE_NAME)));
+
+		URL url = loader.getResource(LICENSE_NAME);
+		assertEquals(EmbeddedJarClassLoader.PROTOCOL, url.getProtocol());
+		assertArrayEquals(expected, read(url.openStream()));
+		assertEquals(expected.length, url.openConnection().getContentLength());
+
+		List<URL> urls = Collections.list(loader.getResources(LICENSE_NAME));
+		assertTrue(urls.size() >= 2);
+		assertEquals(url, urls.get(0));
+
+		assertNotNull(loader.getResource("java/lang/Object.class"));
+		assertNull(loader.getResource("org/twinecoin/missing.txt"));
+	}
+
+	@Test
+	public void testUnsignedJar() throws Exception {
+		ByteArrayOutputStream jar = new ByteArrayOutputStream();
+		ZipOutputStream out = new ZipOutputStream(jar);
+		out.putNextEntry(new ZipEntry("dir/"));
+		out.putNextEntry(new ZipEntry("dir/test.txt"));
+		out.write("test".getBytes(StandardCharsets.US_ASCII));
+		byte[] stored = "stored".getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(stored);
+		ZipEntry storedEntry = new ZipEntry("dir/stored.txt");
+		storedEntry.setMethod(ZipEntry.STORED);
+		storedEntry.setSize(stored.length);
+		storedEntry.setCrc(crc.getValue());
+		out.putNextEntry(storedEntry);
+		out.write(stored);
+		out.close();
+
+		EmbeddedJarClassLoader unsigned = new EmbeddedJarClassLoader(jar.toByteArray(), null, "org.twinecoin.test", new String[0], getClass().getClassLoader());
+		assertEquals(2, unsigned.getEntryCount());
+		assertArrayEquals("test".getBytes(StandardCharsets.US_ASCII), read(unsigned.getResource("dir/test.txt").openStream()));
+		assertArrayEquals(stored, read(unsigned.getResourceAsStream("dir/stored.txt")));
+		assertNull(unsigned.getResourceAsStream("dir/"));
+	}
+
+	@Test(expected = ClassNotFoundException.class)
+	public void testMissingClass() throws Exception {
+		loader.loadClass("org.bouncycastle.Missing");
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.twinecoin.test.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HexCodecTest {
+
+	private static byte[] getAllBytes() {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		return bytes;
+	}
+
+	private static String format(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testEncode() {
+		byte[] bytes = getAllBytes();
+		String expected = format(bytes);
+		assertEquals(expected, HexCodec.encode(bytes));
+		for (int i = 0; i < 256; i++) {
+			assertEquals(expected.substring(2 * i, 2 * i + 2), HexCodec.getHex(i));
+			assertEquals(HexCodec.getHex(i), HexCodec.getHex(i - 256));
+		}
+		assertEquals("", HexCodec.encode(new byte[0]));
+	}
+
+	@Test
+	public void testEncodeRanges() {
+		byte[] bytes = getAllBytes();
+		String expected = format(bytes).substring(20, 40);
+
+		char[] chars = new char[22];
+		assertEquals(21, HexCodec.encode(bytes, 10, 10, chars, 1));
+		assertEquals(expected, new String(chars, 1, 20));
+
+		byte[] ascii = new byte[22];
+		assertEquals(21, HexCodec.encode(bytes, 10, 10, ascii, 1));
+		assertEquals(expected, new String(ascii, 1, 20, StandardCharsets.US_ASCII));
+
+		assertEquals(3, HexCodec.encodeByte(0xAB, chars, 1));
+		assertEquals("ab", new String(chars, 1, 2));
+	}
+
+	@Test
+	public void testEncodeByteBuffer() {
+		byte[] bytes = getAllBytes();
+		String expected = format(bytes).substring(20, 40);
+		ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.allocate(22), ByteBuffer.allocateDirect(22)};
+		for (ByteBuffer buf : buffers) {
+			buf.position(1);
+			HexCodec.encode(bytes, 10, 10, buf);
+			assertEquals(21, buf.position());
+			byte[] written = new byte[20];
+			buf.position(1);
+			buf.get(written);
+			assertEquals(expected, new String(written, StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeByteBufferOverflow() {
+		HexCodec.encode(new byte[4], 0, 4, ByteBuffer.allocate(7));
+	}
+
+	@Test
+	public void testEncodeLong() {
+		char[] chars = new char[16];
+		assertEquals(16, HexCodec.encodeLong(0x0123456789ABCDEFL, chars, 0));
+		assertEquals("0123456789abcdef", new String(chars));
+		HexCodec.encodeLong(-1L, chars, 0);
+		assertEquals("ffffffffffffffff", new String(chars));
+	}
+
+	@Test
+	public void testEncodeEscaped() {
+		char[] chars = new char[8];
+		assertEquals(8, HexCodec.encodeEscaped(new byte[] {0, (byte) 0xFF}, 0, 2, chars, 0));
+		assertEquals("\\x00\\xff", new String(chars));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random r = new Random(16);
+		for (int i = 0; i < 100; i++) {
+			byte[] bytes = new byte[r.nextInt(100)];
+			r.nextBytes(bytes);
+			String hex = HexCodec.encode(bytes);
+			assertArrayEquals(bytes, HexCodec.decode(hex));
+			assertArrayEquals(bytes, HexCodec.decode(hex.toUpperCase()));
+		}
+	}
+
+	@Test
+	public void testDecodeInvalid() {
+		assertNull(HexCodec.decode("abc"));
+		assertNull(HexCodec.decode("0g"));
+		assertNull(HexCodec.decode("g0"));
+		assertNull(HexCodec.decode("0 "));
+		assertNull(HexCodec.decode("0\u0660"));
+		assertEquals(-1, HexCodec.decode("00zz", 0, 4, new byte[2], 0));
+		assertEquals(-1, HexCodec.decode("000", 0, 3, new byte[2], 0));
+	}
+
+	@Test
+	public void testDecodeRanges() {
+		byte[] dst = new byte[3];
+		assertEquals(3, HexCodec.decode("xx0aFf", 2, 4, dst, 1));
+		assertArrayEquals(new byte[] {0, 0x0A, (byte) 0xFF}, dst);
+	}
+
+	@Test
+	public void testDecodeByteBuffer() {
+		ByteBuffer buf = ByteBuffer.allocate(4);
+		assertTrue(HexCodec.decode("x0102", 1, 4, buf));
+		assertEquals(2, buf.position());
+		assertEquals(1, buf.get(0));
+		assertEquals(2, buf.get(1));
+
+		assertFalse(HexCodec.decode("03zz", 0, 4, buf));
+		assertEquals(2, buf.position());
+		assertFalse(HexCodec.decode("030", 0, 3, buf));
+		assertEquals(2, buf.position());
+	}
+}
@@ -0,0 +1,64 @@
+package org.twinecoin.test.crypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Test;
+
+public class Secp256k1FixedBaseTest {
+
+	private final static BigInteger N = Secp256k1FixedBase.getParameters().getN();
+
+	private static ECPoint getExpected(BigInteger k) {
+		return Secp256k1FixedBase.getParameters().getG().multiply(k).normalize();
+	}
+
+	@Test
+	public void testMatchesGeneratorMultiply() {
+		List<BigInteger> scalars = new ArrayList<BigInteger>();
+		scalars.add(BigInteger.ONE);
+		scalars.add(BigInteger.valueOf(15));
+		scalars.add(BigInteger.valueOf(16));
+		scalars.add(N.subtract(BigInteger.ONE));
+		scalars.add(N.add(BigInteger.ONE));
+		scalars.add(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE));
+		Random r = new Random(256);
+		for (int i = 0; i < 300; i++) {
+			scalars.add(new BigInteger(256, r));
+		}
+
+		for (BigInteger k : scalars) {
+			ECPoint point = Secp256k1FixedBase.multiply(k);
+			assertTrue(k.toString(16), point.isNormalized());
+			assertEquals(k.toString(16), getExpected(k), point);
+		}
+	}
+
+	@Test
+	public void testInfinity() {
+		assertTrue(Secp256k1FixedBase.multiply(BigInteger.ZERO).isInfinity());
+		assertTrue(Secp256k1FixedBase.multiply(N).isInfinity());
+	}
+
+	@Test
+	public void testNegatedKey() {
+		ECPoint point = Secp256k1FixedBase.multiply(N.subtract(BigInteger.ONE));
+		assertEquals(Secp256k1FixedBase.getParameters().getG().negate().normalize(), point);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeScalar() {
+		Secp256k1FixedBase.multiply(BigInteger.ONE.negate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testScalarTooLarge() {
+		Secp256k1FixedBase.multiply(BigInteger.ONE.shiftLeft(256));
+	}
+}
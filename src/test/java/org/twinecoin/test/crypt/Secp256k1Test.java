@@ -0,0 +1,131 @@
+package org.twinecoin.test.crypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class Secp256k1Test {
+
+	private final static int KEYS = 20;
+
+	/**
+	 * The number of ways a signature is corrupted, in addition to the
+	 * unmodified signature
+	 */
+	private final static int CASES = 5;
+
+	@BeforeClass
+	public static void addProvider() {
+		if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	/**
+	 * Builds a batch where signature i is valid only if i is a multiple of
+	 * CASES.  The others have a modified message, a modified signature, a
+	 * zero padded signature or the wrong public key.
+	 */
+	private static Batch createBatch(int size, long seed) {
+		Random r = new Random(seed);
+		ECPrivateKey[] pris = new ECPrivateKey[KEYS];
+		ECPublicKey[] keyPubs = new ECPublicKey[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			BigInteger x = new BigInteger(256, r).mod(Secp256k1.getOrder().subtract(BigInteger.ONE)).add(BigInteger.ONE);
+			pris[i] = Secp256k1.getECPrivateKey(x);
+			keyPubs[i] = Secp256k1.getECPublicKey(pris[i]);
+		}
+
+		Batch batch = new Batch(size);
+		for (int i = 0; i < size; i++) {
+			int key = r.nextInt(KEYS);
+			byte[] message = new byte[32];
+			r.nextBytes(message);
+			byte[] sig = Secp256k1.sign(pris[key], message);
+			ECPublicKey pub = keyPubs[key];
+			switch (i % CASES) {
+				case 1:
+					message = message.clone();
+					message[r.nextInt(32)] ^= 1 << r.nextInt(8);
+					break;
+				case 2:
+					sig[8 + r.nextInt(sig.length - 8)] ^= 1 << r.nextInt(8);
+					break;
+				case 3:
+					sig = Arrays.copyOf(sig, sig.length + 1);
+					break;
+				case 4:
+					pub = keyPubs[(key + 1) % KEYS];
+					break;
+			}
+			batch.pubs[i] = pub;
+			batch.messages[i] = message;
+			batch.sigs[i] = sig;
+		}
+		return batch;
+	}
+
+	private static BitSet getExpected(int size) {
+		BitSet expected = new BitSet(size);
+		for (int i = 0; i < size; i += CASES) {
+			expected.set(i);
+		}
+		return expected;
+	}
+
+	private static void checkBatch(int size, long seed) {
+		Batch batch = createBatch(size, seed);
+		BitSet valid = Secp256k1.verify(batch.pubs, batch.messages, batch.sigs);
+
+		BitSet jca = new BitSet(size);
+		for (int i = 0; i < size; i++) {
+			jca.set(i, Secp256k1.verify(batch.pubs[i], batch.messages[i], batch.sigs[i]));
+		}
+
+		assertEquals(jca, valid);
+		assertEquals(getExpected(size), valid);
+	}
+
+	@Test
+	public void testBatchVerifyMatchesJCA() {
+		checkBatch(2000, 14);
+	}
+
+	@Test
+	public void testSmallBatchVerifyMatchesJCA() {
+		checkBatch(23, 15);
+	}
+
+	@Test
+	public void testEmptyBatch() {
+		assertTrue(Secp256k1.verify(new ECPublicKey[0], new byte[0][], new byte[0][]).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatchLengthMismatch() {
+		Secp256k1.verify(new ECPublicKey[1], new byte[1][], new byte[2][]);
+	}
+
+	private static class Batch {
+		private final ECPublicKey[] pubs;
+		private final byte[][] messages;
+		private final byte[][] sigs;
+
+		public Batch(int size) {
+			pubs = new ECPublicKey[size];
+			messages = new byte[size][];
+			sigs = new byte[size][];
+		}
+	}
+}
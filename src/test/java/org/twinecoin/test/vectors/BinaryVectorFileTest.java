@@ -0,0 +1,208 @@
+package org.twinecoin.test.vectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryVectorFileTest {
+
+	private final static Pattern FIELD = Pattern.compile("  (\\w+) (\\w+)(?:\\[(\\d+)\\])?;.*");
+
+	private final static Pattern STRUCT_END = Pattern.compile("\\} (\\w+);");
+
+	private final static Pattern DEFINE = Pattern.compile("#define (\\w+) (\\d+)");
+
+	private final static Pattern CHECK_SIZE = Pattern.compile("TW_VECTOR_FILE_CHECK_SIZE\\((\\w+), (\\w+)\\);");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRecordSizes() {
+		assertEquals(680, U512TestVectors.RECORD_512X512);
+		assertEquals(224, U512TestVectors.RECORD_512X64);
+	}
+
+	/**
+	 * Lays out the structs of the format header with the LP64 alignment
+	 * rules and checks them against the declared sizes.
+	 */
+	@Test
+	public void testFormatHeaderStructSizes() {
+		ListVectorSink sink = new ListVectorSink();
+		BinaryVectorFile.generateFormatHeader(sink);
+
+		Map<String, Integer> structSizes = new HashMap<String, Integer>();
+		Map<String, Integer> defines = new HashMap<String, Integer>();
+		int checks = 0;
+
+		int offset = 0;
+		int alignment = 1;
+		for (String line : sink.getLines()) {
+			Matcher m;
+			if (line.startsWith("typedef struct")) {
+				offset = 0;
+				alignment = 1;
+			} else if ((m = FIELD.matcher(line)).matches()) {
+				int size = getTypeSize(m.group(1));
+				int align = Math.min(size, 8);
+				offset = (offset + align - 1) / align * align;
+				offset += size * (m.group(3) == null ? 1 : Integer.parseInt(m.group(3)));
+				alignment = Math.max(alignment, align);
+			} else if ((m = STRUCT_END.matcher(line)).matches()) {
+				structSizes.put(m.group(1), (offset + alignment - 1) / alignment * alignment);
+			} else if ((m = DEFINE.matcher(line)).matches()) {
+				defines.put(m.group(1), Integer.parseInt(m.group(2)));
+			} else if ((m = CHECK_SIZE.matcher(line)).matches()) {
+				String size = m.group(2);
+				int expected = defines.containsKey(size) ? defines.get(size) : Integer.parseInt(size);
+				assertEquals(m.group(1), Integer.valueOf(expected), structSizes.get(m.group(1)));
+				checks++;
+			}
+		}
+
+		assertEquals(5, checks);
+		assertEquals(Integer.valueOf(U512TestVectors.RECORD_512X512), structSizes.get("tw_vector_file_u512_512x512"));
+		assertEquals(Integer.valueOf(U512TestVectors.RECORD_512X64), structSizes.get("tw_vector_file_u512_512x64"));
+	}
+
+	private static int getTypeSize(String type) {
+		if (type.equals("char") || type.equals("tw_u8")) {
+			return 1;
+		} else if (type.equals("int") || type.equals("tw_u32")) {
+			return 4;
+		} else if (type.equals("tw_u64")) {
+			return 8;
+		} else if (type.equals("tw_u512")) {
+			return 64;
+		}
+		throw new IllegalArgumentException("Unknown type, " + type);
+	}
+
+	@Test
+	public void testFileLayout() throws IOException {
+		File dir = folder.getRoot();
+		BinaryVectorFile binary = BinaryVectorFile.create(dir, "test.bin");
+
+		ByteBuffer records = ByteBuffer.allocate(3 * 24);
+		for (int i = 0; i < records.capacity(); i++) {
+			records.put((byte) i);
+		}
+		records.flip();
+		binary.beginRecords("records", 24);
+		binary.writeRecords(records);
+		binary.endTable();
+
+		byte[][] blobs = new byte[][] {new byte[] {1, 2, 3}, new byte[0], new byte[100]};
+		Arrays.fill(blobs[2], (byte) 7);
+		binary.beginBlobs("blobs");
+		for (byte[] blob : blobs) {
+			binary.writeBlob(blob);
+		}
+		binary.endTable();
+		binary.finish();
+
+		byte[] bytes = Files.readAllBytes(new File(dir, "test.bin").toPath());
+		ByteBuffer file = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals("TWVECBIN", new String(bytes, 0, 8, StandardCharsets.US_ASCII));
+		assertEquals(BinaryVectorFile.VERSION, file.getInt(8));
+		assertEquals(64, file.getInt(12));
+		assertEquals(2, file.getInt(16));
+		long directoryOffset = file.getLong(24);
+		assertEquals(bytes.length, file.getLong(32));
+		assertEquals(0, directoryOffset % 64);
+		assertEquals(bytes.length, directoryOffset + 2 * 64);
+
+		int recordEntry = (int) directoryOffset;
+		assertEquals("records", getName(bytes, recordEntry));
+		assertEquals(BinaryVectorFile.KIND_RECORDS, file.getInt(recordEntry + 32));
+		assertEquals(24, file.getInt(recordEntry + 36));
+		assertEquals(3, file.getLong(recordEntry + 40));
+		int recordOffset = (int) file.getLong(recordEntry + 48);
+		assertEquals(0, recordOffset % 64);
+		assertEquals(0, file.getLong(recordEntry + 56));
+		assertArrayEquals(records.array(), Arrays.copyOfRange(bytes, recordOffset, recordOffset + records.capacity()));
+
+		int blobEntry = recordEntry + 64;
+		assertEquals("blobs", getName(bytes, blobEntry));
+		assertEquals(BinaryVectorFile.KIND_BLOBS, file.getInt(blobEntry + 32));
+		assertEquals(16, file.getInt(blobEntry + 36));
+		assertEquals(blobs.length, file.getLong(blobEntry + 40));
+		int indexOffset = (int) file.getLong(blobEntry + 48);
+		int blobOffset = (int) file.getLong(blobEntry + 56);
+		assertEquals(0, indexOffset % 64);
+		assertEquals(0, blobOffset % 64);
+		for (int i = 0; i < blobs.length; i++) {
+			int offset = blobOffset + (int) file.getLong(indexOffset + i * 16);
+			int length = (int) file.getLong(indexOffset + i * 16 + 8);
+			assertArrayEquals(blobs[i], Arrays.copyOfRange(bytes, offset, offset + length));
+		}
+	}
+
+	private static String getName(byte[] bytes, int offset) {
+		int end = offset;
+		while (bytes[end] != 0) {
+			end++;
+		}
+		return new String(bytes, offset, end - offset, StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	public void testPartialRecord() throws IOException {
+		BinaryVectorFile binary = BinaryVectorFile.create(folder.getRoot(), "test.bin");
+		try {
+			binary.beginRecords("records", 24);
+			binary.writeRecords(ByteBuffer.allocate(25));
+		} catch (IllegalArgumentException e) {
+			return;
+		} finally {
+			binary.close();
+		}
+		throw new AssertionError("Partial record accepted");
+	}
+
+	@Test
+	public void testUnendedTable() throws IOException {
+		BinaryVectorFile binary = BinaryVectorFile.create(folder.getRoot(), "test.bin");
+		try {
+			binary.beginBlobs("blobs");
+			binary.finish();
+		} catch (IllegalStateException e) {
+			return;
+		} finally {
+			binary.close();
+		}
+		throw new AssertionError("Unended table accepted");
+	}
+
+	@Test
+	public void testCloseDiscardsFile() throws IOException {
+		BinaryVectorFile binary = BinaryVectorFile.create(folder.getRoot(), "test.bin");
+		binary.beginRecords("records", 8);
+		binary.writeRecords(ByteBuffer.allocate(8));
+		binary.endTable();
+		binary.close();
+		assertFalse(new File(folder.getRoot(), "test.bin").exists());
+		List<String> remaining = Arrays.asList(folder.getRoot().list());
+		assertTrue(remaining.toString(), remaining.isEmpty());
+	}
+}
@@ -0,0 +1,56 @@
+package org.twinecoin.test.vectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CheckpointRandomTest {
+
+	@Test
+	public void testMatchesRandom() {
+		Random expected = new Random(1234);
+		CheckpointRandom r = new CheckpointRandom(1234);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(expected.nextInt(), r.nextInt());
+			assertEquals(expected.nextInt(1 + i), r.nextInt(1 + i));
+			assertEquals(expected.nextLong(), r.nextLong());
+			assertEquals(expected.nextDouble(), r.nextDouble(), 0.0);
+		}
+	}
+
+	@Test
+	public void testSetSeed() {
+		Random expected = new Random(1);
+		CheckpointRandom r = new CheckpointRandom(2);
+		expected.setSeed(99);
+		r.setSeed(99);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(expected.nextLong(), r.nextLong());
+		}
+	}
+
+	@Test
+	public void testReplayFromState() {
+		CheckpointRandom r = new CheckpointRandom(42);
+		for (int i = 0; i < 37; i++) {
+			r.nextLong();
+		}
+		CheckpointRandom replay = CheckpointRandom.fromState(r.getState());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(r.nextInt(), replay.nextInt());
+		}
+	}
+
+	@Test
+	public void testSubstreams() {
+		CheckpointRandom a = CheckpointRandom.substream(7, 3);
+		CheckpointRandom b = CheckpointRandom.substream(7, 3);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(a.nextLong(), b.nextLong());
+		}
+		assertFalse(CheckpointRandom.substream(7, 3).nextLong() == CheckpointRandom.substream(7, 4).nextLong());
+	}
+}
@@ -0,0 +1,75 @@
+package org.twinecoin.test.vectors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntegerPoolTest {
+
+	private final static long[] EDGE_VALUES = new long[] {0L, 1L, -1L, Long.MIN_VALUE, Long.MAX_VALUE};
+
+	/**
+	 * Number of entries, which is not a multiple of the checkpoint interval
+	 */
+	private final static int SIZE = 300;
+
+	/**
+	 * Builds the pool eagerly, with the draws made by the compatible pool.
+	 */
+	private static List<BigInteger> getEagerPool(Random r, int size) {
+		List<BigInteger> pool = new ArrayList<BigInteger>();
+		for (int i = 0; i < size; i++) {
+			long[] value = new long[8];
+			for (int j = 0; j < value.length; j++) {
+				int option = r.nextInt(EDGE_VALUES.length);
+				if (r.nextInt(4) == 0) {
+					value[j] = r.nextLong();
+				} else {
+					value[j] = EDGE_VALUES[option];
+				}
+			}
+			pool.add(Convert.longToBigInteger(value));
+		}
+		return pool;
+	}
+
+	@Test
+	public void testCompatibleMatchesEagerPool() {
+		Random expectedRandom = new Random(5);
+		List<BigInteger> expected = getEagerPool(expectedRandom, SIZE);
+
+		CheckpointRandom r = new CheckpointRandom(5);
+		IntegerPool pool = IntegerPool.compatible(r, SIZE, EDGE_VALUES);
+
+		assertEquals(SIZE, pool.size());
+		for (int i = SIZE - 1; i >= 0; i--) {
+			assertEquals(expected.get(i), pool.get(i));
+		}
+
+		// The caller's random source continues after the pool draws
+		assertEquals(expectedRandom.nextLong(), r.nextLong());
+	}
+
+	@Test
+	public void testSeededIsRepeatable() {
+		IntegerPool a = IntegerPool.seeded(11, SIZE, EDGE_VALUES);
+		IntegerPool b = IntegerPool.seeded(11, SIZE, EDGE_VALUES);
+		BigInteger[] reversed = new BigInteger[SIZE];
+		for (int i = SIZE - 1; i >= 0; i--) {
+			reversed[i] = b.get(i);
+		}
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals(reversed[i], a.get(i));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexOutOfRange() {
+		IntegerPool.seeded(11, SIZE, EDGE_VALUES).get(SIZE);
+	}
+}
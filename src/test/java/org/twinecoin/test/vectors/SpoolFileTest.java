@@ -0,0 +1,153 @@
+package org.twinecoin.test.vectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.twinecoin.test.util.Config;
+
+public class SpoolFileTest {
+
+	private final static String SPOOL_DIR = Config.PREFIX + "spool.dir";
+
+	/**
+	 * Larger than the spool buffer, so the spool spills to its file
+	 */
+	private final static int LARGE_SIZE = 3 << 18;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String spoolDir;
+
+	@Before
+	public void setSpoolDir() {
+		spoolDir = System.getProperty(SPOOL_DIR);
+		System.setProperty(SPOOL_DIR, folder.getRoot().getPath());
+	}
+
+	@After
+	public void restoreSpoolDir() {
+		if (spoolDir == null) {
+			System.clearProperty(SPOOL_DIR);
+		} else {
+			System.setProperty(SPOOL_DIR, spoolDir);
+		}
+	}
+
+	private static byte[] getBytes(int length, long seed) {
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private int getSpoolFileCount() {
+		return folder.getRoot().list().length;
+	}
+
+	@Test
+	public void testSmallSpoolStaysInMemory() {
+		SpoolFile spool = new SpoolFile();
+		byte[] bytes = getBytes(1000, 1);
+		spool.write(bytes, 0, bytes.length);
+		assertEquals(bytes.length, spool.size());
+		assertEquals(0, getSpoolFileCount());
+
+		ByteBuffer dst = ByteBuffer.allocate(100);
+		spool.read(500, dst);
+		assertEquals(100, dst.position());
+		assertArrayEquals(Arrays.copyOfRange(bytes, 500, 600), dst.array());
+		spool.close();
+	}
+
+	@Test
+	public void testLargeSpoolReadsAcrossFileAndBuffer() {
+		SpoolFile spool = new SpoolFile();
+		byte[] bytes = getBytes(LARGE_SIZE + 12345, 2);
+		int half = bytes.length / 2;
+		spool.write(bytes, 0, half);
+		spool.write(ByteBuffer.wrap(bytes, half, bytes.length - half));
+		assertEquals(bytes.length, spool.size());
+		assertEquals(1, getSpoolFileCount());
+
+		Random r = new Random(3);
+		for (int i = 0; i < 100; i++) {
+			int length = r.nextInt(1 << 18);
+			int position = r.nextInt(bytes.length - length + 1);
+			ByteBuffer dst = ByteBuffer.allocate(length);
+			spool.read(position, dst);
+			assertArrayEquals(Arrays.copyOfRange(bytes, position, position + length), dst.array());
+		}
+
+		ByteBuffer all = ByteBuffer.allocate(bytes.length);
+		spool.read(0, all);
+		assertArrayEquals(bytes, all.array());
+
+		spool.close();
+		assertEquals(0, getSpoolFileCount());
+	}
+
+	@Test
+	public void testRecords() {
+		SpoolFile spool = new SpoolFile();
+		List<byte[]> records = new ArrayList<byte[]>();
+		Random r = new Random(4);
+		long total = 0;
+		while (total < LARGE_SIZE) {
+			int length = r.nextInt(10) == 0 ? r.nextInt(LARGE_SIZE) : r.nextInt(100);
+			byte[] record = getBytes(length, r.nextLong());
+			records.add(record);
+			spool.writeRecord(record);
+			total += length + 4;
+		}
+		spool.writeRecord(new byte[0]);
+		records.add(new byte[0]);
+		assertEquals(records.size(), spool.getRecordCount());
+		assertEquals(total + 4, spool.size());
+
+		SpoolFile.Reader reader = spool.openReader();
+		long middle = 0;
+		for (int i = 0; i < records.size(); i++) {
+			if (i == records.size() / 2) {
+				middle = reader.getPosition();
+			}
+			assertArrayEquals(records.get(i), reader.next());
+		}
+		assertNull(reader.next());
+		assertEquals(spool.size(), reader.getPosition());
+
+		SpoolFile.Reader resumed = spool.openReader(middle);
+		for (int i = records.size() / 2; i < records.size(); i++) {
+			assertArrayEquals(records.get(i), resumed.next());
+		}
+		assertNull(resumed.next());
+
+		assertNull(spool.openReader(spool.size()).next());
+		spool.close();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testReadOutOfRange() {
+		SpoolFile spool = new SpoolFile();
+		spool.write(new byte[10], 0, 10);
+		spool.read(5, ByteBuffer.allocate(6));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWriteAfterClose() {
+		SpoolFile spool = new SpoolFile();
+		spool.close();
+		spool.write(new byte[1], 0, 1);
+	}
+}
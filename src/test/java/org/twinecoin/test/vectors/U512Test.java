@@ -0,0 +1,124 @@
+package org.twinecoin.test.vectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class U512Test {
+
+	private final static BigInteger MODULUS = BigInteger.ONE.shiftLeft(U512.BITS);
+
+	private final static BigInteger MAX = MODULUS.subtract(BigInteger.ONE);
+
+	/**
+	 * Gets edge values, at word boundaries and the ends of the range, and
+	 * random values of random bit lengths.
+	 */
+	private static List<BigInteger> getValues() {
+		List<BigInteger> values = new ArrayList<BigInteger>();
+		values.add(BigInteger.ZERO);
+		values.add(BigInteger.ONE);
+		values.add(MAX);
+		for (int i = 63; i < U512.BITS; i += 64) {
+			values.add(BigInteger.ONE.shiftLeft(i));
+			values.add(BigInteger.ONE.shiftLeft(i + 1).subtract(BigInteger.ONE));
+		}
+		Random r = new Random(512);
+		for (int i = 0; i < 64; i++) {
+			values.add(new BigInteger(1 + r.nextInt(U512.BITS), r));
+		}
+		return values;
+	}
+
+	@Test
+	public void testBigIntegerRoundTrip() {
+		for (BigInteger value : getValues()) {
+			assertEquals(value, U512.valueOf(value).toBigInteger());
+		}
+	}
+
+	@Test
+	public void testWords() {
+		U512 u = U512.valueOf(BigInteger.ONE.shiftLeft(64).or(BigInteger.valueOf(2)));
+		assertEquals(2, u.getWord(0));
+		assertEquals(1, u.getWord(1));
+		assertFalse(u.isZero());
+		assertTrue(U512.valueOf(BigInteger.ZERO).isZero());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueOfNegative() {
+		U512.valueOf(BigInteger.ONE.negate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValueOfTooLarge() {
+		U512.valueOf(MODULUS);
+	}
+
+	@Test
+	public void testAddSubtractCompare() {
+		List<BigInteger> values = getValues();
+		U512 result = new U512();
+		for (BigInteger a : values) {
+			U512 ua = U512.valueOf(a);
+			for (BigInteger b : values) {
+				U512 ub = U512.valueOf(b);
+
+				BigInteger sum = a.add(b);
+				int carry = U512.add(ua, ub, result);
+				assertEquals(sum.mod(MODULUS), result.toBigInteger());
+				assertEquals(sum.compareTo(MAX) > 0 ? 1 : 0, carry);
+
+				BigInteger diff = a.subtract(b);
+				int borrow = U512.subtract(ua, ub, result);
+				assertEquals(diff.mod(MODULUS), result.toBigInteger());
+				assertEquals(diff.signum() < 0 ? 1 : 0, borrow);
+
+				assertEquals(a.compareTo(b), U512.compare(ua, ub));
+				assertEquals(a.equals(b), ua.equals(ub));
+			}
+		}
+	}
+
+	@Test
+	public void testShifts() {
+		U512 result = new U512();
+		for (BigInteger a : getValues()) {
+			U512 ua = U512.valueOf(a);
+			for (int shift = 0; shift < U512.BITS; shift++) {
+				BigInteger left = a.shiftLeft(shift);
+				int overflow = U512.shiftLeft(ua, shift, result);
+				assertEquals(left.mod(MODULUS), result.toBigInteger());
+				assertEquals(left.compareTo(MAX) > 0 ? 1 : 0, overflow);
+
+				BigInteger right = a.shiftRight(shift);
+				int underflow = U512.shiftRight(ua, shift, result);
+				assertEquals(right, result.toBigInteger());
+				assertEquals(right.shiftLeft(shift).equals(a) ? 0 : 1, underflow);
+			}
+		}
+	}
+
+	@Test
+	public void testShiftInPlace() {
+		BigInteger a = MAX.shiftRight(3);
+		U512 u = U512.valueOf(a);
+		U512.shiftLeft(u, 67, u);
+		assertEquals(a.shiftLeft(67).mod(MODULUS), u.toBigInteger());
+		U512.shiftRight(u, 130, u);
+		assertEquals(a.shiftLeft(67).mod(MODULUS).shiftRight(130), u.toBigInteger());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShiftOutOfRange() {
+		U512.shiftLeft(new U512(), U512.BITS, new U512());
+	}
+}